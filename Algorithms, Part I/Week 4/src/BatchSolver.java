@@ -0,0 +1,193 @@
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+/**
+ * Solve many slider puzzles in one JVM on a work-stealing pool.
+ * <p>
+ * Puzzle files are given as arguments (directories are walked for .txt
+ * files) or, without any, read by name from standard input. One tab-separated line is printed
+ * per puzzle as soon as it is solved:
+ * <pre>
+ * file  moves  milliseconds
+ * </pre>
+ * where moves is -1 for unsolvable puzzles, or "limit" and "error" for
+ * searches that were abandoned. Each search may take its share of the
+ * heap unless -memory sets its limit, and one running out of memory is
+ * reported as a limit without stopping the others.
+ * </p>
+ * Usage: java BatchSolver [-threads N] [-memory MB] [-algorithm NAME]
+ * [-heuristic NAME] [-pdb DIR] [file or directory ...]
+ * @author etlove
+ */
+public class BatchSolver {
+	/**
+	 * Pool of solving threads
+	 */
+	private final ForkJoinPool pool;
+	/**
+	 * Results in completion order
+	 */
+	private final CompletionService<String> results;
+	/**
+	 * Search algorithm
+	 */
+	private Solver.Algorithm algorithm = Solver.Algorithm.ASTAR;
+	/**
+	 * Name of the heuristic
+	 */
+	private String heuristic = "manhattan";
+	/**
+	 * Directory of pattern database files
+	 */
+	private String databases = ".";
+	/**
+	 * Memory limit of each search in bytes
+	 */
+	private long memoryLimit;
+	/**
+	 * Heuristics by dimension, shared by all puzzles
+	 */
+	private final Map<Integer, Heuristic> heuristics = new HashMap<Integer, Heuristic>();
+	/**
+	 * Submitted puzzles whose result is not printed yet
+	 */
+	private final Map<Future<String>, File> pending = new HashMap<Future<String>, File>();
+	/**
+	 * 
+	 * @param threads parallelism of the pool
+	 */
+	public BatchSolver(int threads) {
+		pool = new ForkJoinPool(threads);
+		results = new ExecutorCompletionService<String>(pool);
+		memoryLimit = Runtime.getRuntime().maxMemory() / threads;
+	}
+	/**
+	 * Queue a puzzle file, or every file below a directory, and print the
+	 * results finished so far.
+	 * @param file
+	 */
+	public void submit(final File file) {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.isDirectory() || child.getName().endsWith(".txt")) submit(child);
+			}
+			return;
+		}
+		Future<String> result = results.submit(new Callable<String>() {
+			public String call() {
+				return solve(file);
+			}
+		});
+		pending.put(result, file);
+		flush(false);
+	}
+	/**
+	 * Print finished results, an error with -1 milliseconds for a puzzle
+	 * whose task failed.
+	 * @param all wait for every pending puzzle if true
+	 */
+	public void flush(boolean all) {
+		try {
+			while (!pending.isEmpty()) {
+				Future<String> done = all ? results.take() : results.poll();
+				if (done == null) return;
+				File file = pending.remove(done);
+				try {
+					StdOut.println(done.get());
+				} catch (ExecutionException e) {
+					StdOut.println(file.getPath() + "\terror\t-1");
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+	/**
+	 * Finish pending puzzles and stop the pool.
+	 */
+	public void close() {
+		flush(true);
+		pool.shutdown();
+	}
+	/**
+	 * Solve one puzzle.
+	 * @param file
+	 * @return line of the report
+	 */
+	private String solve(File file) {
+		long start = System.currentTimeMillis();
+		String moves;
+		try {
+			Board initial = BoardReader.read(file);
+			Solver.Options options = new Solver.Options().algorithm(algorithm)
+					.heuristic(heuristic(initial.dimension())).memoryLimit(memoryLimit);
+			moves = String.valueOf(new Solver(initial, options).moves());
+		} catch (Solver.MemoryLimitException e) {
+			moves = "limit";
+		} catch (OutOfMemoryError e) {
+			// the heap ran out before the estimated limit, the nodes are garbage now
+			moves = "limit";
+		} catch (Exception e) {
+			moves = "error";
+		}
+		return file.getPath() + "\t" + moves + "\t" + (System.currentTimeMillis() - start);
+	}
+	/**
+	 * Heuristic of a dimension, built once.
+	 * @param dim
+	 * @return heuristic
+	 * @throws IOException
+	 */
+	private synchronized Heuristic heuristic(int dim) throws IOException {
+		Heuristic h = heuristics.get(dim);
+		if (h == null) {
+			h = Solver.heuristic(heuristic, dim, databases);
+			heuristics.put(dim, h);
+		}
+		return h;
+	}
+	/**
+	 * 
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		int threads = Runtime.getRuntime().availableProcessors();
+		Map<String, String> options = new HashMap<String, String>();
+		int i = 0;
+		for (; i + 1 < args.length && args[i].startsWith("-"); i += 2) {
+			options.put(args[i], args[i + 1]);
+		}
+		if (options.containsKey("-threads")) threads = Integer.parseInt(options.remove("-threads"));
+		BatchSolver batch = new BatchSolver(threads);
+		for (Map.Entry<String, String> option : options.entrySet()) {
+			String name = option.getKey();
+			String value = option.getValue();
+			if (name.equals("-memory")) batch.memoryLimit = Long.parseLong(value) << 20;
+			else if (name.equals("-algorithm")) batch.algorithm = Solver.Algorithm.valueOf(value.toUpperCase());
+			else if (name.equals("-heuristic")) batch.heuristic = value;
+			else if (name.equals("-pdb")) batch.databases = value;
+			else throw new IllegalArgumentException("Unknown option " + name);
+		}
+		if (i < args.length) {
+			for (; i < args.length; i++) batch.submit(new File(args[i]));
+		} else {
+			// stream of file names
+			while (StdIn.hasNextLine()) {
+				String name = StdIn.readLine().trim();
+				if (!name.isEmpty()) batch.submit(new File(name));
+			}
+		}
+		batch.close();
+	}
+}
@@ -0,0 +1,199 @@
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Micro-benchmarks of the board operations on the hot path of the search,
+ * and of end-to-end solves, over a corpus of puzzle files.
+ * <p>
+ * Every case runs for some warm-up iterations, then for measured ones of a
+ * fixed duration on the same thread. Throughput is reported in operations
+ * per second together with the bytes allocated per operation, read from the
+ * allocation counter of the thread, so that regressions in either show up.
+ * Results are consumed into a field so that the JIT cannot drop the work.
+ * </p>
+ * Usage: java Benchmark [-warmup N] [-iterations N] [-time MS]
+ * [-filter TEXT] [file or directory ...], file/ by default
+ * @author etlove
+ */
+public class Benchmark {
+	/**
+	 * A benchmarked operation.
+	 */
+	private abstract static class Case {
+		/**
+		 * Name in the report
+		 */
+		private final String name;
+		/**
+		 * @param name
+		 */
+		Case(String name) {
+			this.name = name;
+		}
+		/**
+		 * Run the operation once.
+		 * @return any value depending on the work
+		 */
+		abstract long run();
+	}
+	/**
+	 * Allocation counter of threads
+	 */
+	private static final com.sun.management.ThreadMXBean THREADS =
+			(com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+	/**
+	 * Sink of the results
+	 */
+	private static volatile long sink;
+	/**
+	 * Warm-up iterations of each case
+	 */
+	private int warmup = 3;
+	/**
+	 * Measured iterations of each case
+	 */
+	private int iterations = 5;
+	/**
+	 * Duration of an iteration in milliseconds
+	 */
+	private long time = 1000;
+	/**
+	 * Cases to run
+	 */
+	private final List<Case> cases = new ArrayList<Case>();
+	/**
+	 * Add the cases of one puzzle.
+	 * @param file puzzle file
+	 * @throws IOException if the file cannot be read
+	 */
+	public void add(final File file) throws IOException {
+		final String name = file.getName().replace(".txt", "");
+		final Board board = BoardReader.read(file);
+		final Board copy = board.copy();
+		// the full scan, manhattan() only reads a field above 4x4
+		cases.add(new Case(name + " manhattan") {
+			long run() {
+				return board.scanManhattan();
+			}
+		});
+		cases.add(new Case(name + " equals") {
+			long run() {
+				return board.equals(copy) ? 1 : 0;
+			}
+		});
+		cases.add(new Case(name + " neighbors") {
+			long run() {
+				long count = 0;
+				for (Board neighbor : board.neighbors()) count += neighbor.key();
+				return count;
+			}
+		});
+		// what Solver.move() does per child: slide and update the distance
+		cases.add(new Case(name + " expand") {
+			long run() {
+				long count = 0;
+				for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+					if (!board.canMove(direction)) continue;
+					count += board.slide(direction).key() + board.manhattanDelta(direction);
+				}
+				return count;
+			}
+		});
+		cases.add(new Case(name + " solve") {
+			long run() {
+				return new Solver(board).moves();
+			}
+		});
+	}
+	/**
+	 * Add the puzzles of a file or, recursively, a directory.
+	 * @param file
+	 * @throws IOException if a file cannot be read
+	 */
+	public void submit(File file) throws IOException {
+		if (file.isDirectory()) {
+			File[] children = file.listFiles();
+			Arrays.sort(children);
+			for (File child : children) {
+				if (child.isDirectory() || child.getName().endsWith(".txt")) submit(child);
+			}
+		} else {
+			add(file);
+		}
+	}
+	/**
+	 * Run the cases whose name contains the filter and print one line each.
+	 * @param filter part of the name, empty for all
+	 */
+	public void run(String filter) {
+		StdOut.printf("%-28s %14s %12s %12s%n", "case", "ops/s", "error", "B/op");
+		for (Case c : cases) {
+			if (!c.name.contains(filter)) continue;
+			for (int i = 0; i < warmup; i++) measure(c);
+			double[] rates = new double[iterations];
+			double bytes = 0;
+			for (int i = 0; i < iterations; i++) {
+				double[] result = measure(c);
+				rates[i] = result[0];
+				bytes += result[1];
+			}
+			double mean = 0;
+			for (double rate : rates) mean += rate;
+			mean /= iterations;
+			double variance = 0;
+			for (double rate : rates) variance += (rate - mean) * (rate - mean);
+			double error = iterations > 1 ? Math.sqrt(variance / (iterations - 1)) : 0;
+			StdOut.printf("%-28s %14.1f %12.1f %12.1f%n", c.name, mean, error, bytes / iterations);
+		}
+	}
+	/**
+	 * One iteration: run the case in growing batches until the time is up.
+	 * @param c case
+	 * @return operations per second and bytes allocated per operation
+	 */
+	private double[] measure(Case c) {
+		long thread = Thread.currentThread().getId();
+		long allocated = THREADS.getThreadAllocatedBytes(thread);
+		long start = System.nanoTime();
+		long deadline = start + time * 1000000L;
+		long operations = 0;
+		long value = 0;
+		long now;
+		int batch = 1;
+		do {
+			for (int i = 0; i < batch; i++) value += c.run();
+			operations += batch;
+			now = System.nanoTime();
+			if (batch < 1 << 16) batch <<= 1;
+		} while (now < deadline);
+		allocated = THREADS.getThreadAllocatedBytes(thread) - allocated;
+		sink = value;
+		return new double[] { operations * 1e9 / (now - start), (double) allocated / operations };
+	}
+	/**
+	 * Benchmark the puzzles of the arguments.
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		Benchmark benchmark = new Benchmark();
+		String filter = "";
+		int count = 0;
+		for (int i = 0; i < args.length; i++) {
+			if ("-warmup".equals(args[i])) benchmark.warmup = Integer.parseInt(args[++i]);
+			else if ("-iterations".equals(args[i])) benchmark.iterations = Integer.parseInt(args[++i]);
+			else if ("-time".equals(args[i])) benchmark.time = Long.parseLong(args[++i]);
+			else if ("-filter".equals(args[i])) filter = args[++i];
+			else {
+				benchmark.submit(new File(args[i]));
+				count++;
+			}
+		}
+		if (count == 0) benchmark.submit(new File("file"));
+		benchmark.run(filter);
+	}
+}
@@ -1,3 +1,4 @@
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 
 /**
@@ -5,21 +6,108 @@ import java.util.Arrays;
  */
 public class Board {
 	/**
-	 * Blocks
+	 * Directions of the empty block, each fits in two bits.
 	 */
-	private int[][] blocks;
+	static final int UP = 0;
+	static final int DOWN = 1;
+	static final int LEFT = 2;
+	static final int RIGHT = 3;
+	/**
+	 * Largest dimension whose blocks fit in a long of 4-bit nibbles.
+	 */
+	private static final int PACKED_MAX = 4;
+	/**
+	 * Largest dimension, blocks are chars.
+	 */
+	private static final int DIM_MAX = 256;
+	/**
+	 * Row and column tables of each dimension, built on first use
+	 */
+	private static final Grid[] GRIDS = new Grid[DIM_MAX + 1];
+	/**
+	 * Packed blocks of the goal board of each dimension up to PACKED_MAX
+	 */
+	private static final long[] GOALS = new long[PACKED_MAX + 1];
+	static {
+		for (int dim = 1; dim <= PACKED_MAX; dim++) {
+			for (int index = 0; index < dim * dim - 1; index++) {
+				GOALS[dim] |= (long) (index + 1) << (index << 2);
+			}
+		}
+	}
+	/**
+	 * Blocks in row-major order, one nibble each (dimension up to 4)
+	 */
+	private long packed;
+	/**
+	 * Blocks in row-major order (dimension above 4)
+	 */
+	private char[] tiles;
+	/**
+	 * Index of the empty block. Blocks are chars, so indexes and the
+	 * dimension fit in chars too, which keeps a board within 40 bytes.
+	 */
+	private char blank;
+	/**
+	 * Zobrist hash, XOR of the keys of every block at its index
+	 */
+	private long hash;
+	/**
+	 * Sum of Manhattan distances, kept up to date by set() above PACKED_MAX
+	 */
+	private int manhattan;
 	/**
 	 * Dimension
 	 */
-	private int dim;
+	private char dim;
 	/**
 	 * Construct a board from an N-by-N array of blocks. where blocks[i][j] =
 	 * block in row i, column j
 	 * @param blocks input of block
 	 */
 	public Board(int[][] blocks) {
-		this.blocks = clone(blocks);
-		dim = blocks.length;
+		this(blocks.length);
+		for (int row = 0; row < dim; row++) {
+			for (int col = 0; col < dim; col++) {
+				int index = row * dim + col;
+				set(index, blocks[row][col]);
+				if (blocks[row][col] == 0) blank = (char) index;
+			}
+		}
+	}
+	/**
+	 * Empty board of a dimension, to be filled with set().
+	 * @param dim dimension
+	 */
+	private Board(int dim) {
+		if (dim > DIM_MAX) throw new IllegalArgumentException("Dimension above " + DIM_MAX + ": " + dim);
+		if (GRIDS[dim] == null) GRIDS[dim] = new Grid(dim);
+		this.dim = (char) dim;
+		if (dim > PACKED_MAX) tiles = new char[dim * dim];
+	}
+	/**
+	 * Goal board of a dimension.
+	 * @param dim dimension
+	 * @return goal board
+	 */
+	static Board goal(int dim) {
+		int[][] blocks = new int[dim][dim];
+		for (int index = 0; index < dim * dim - 1; index++) {
+			blocks[index / dim][index % dim] = index + 1;
+		}
+		return new Board(blocks);
+	}
+	/**
+	 * Copy constructor.
+	 * @param board board to copy
+	 */
+	private Board(Board board) {
+		this.dim = board.dim;
+		this.blank = board.blank;
+		this.packed = board.packed;
+		this.hash = board.hash;
+		this.manhattan = board.manhattan;
+		if (board.tiles != null) this.tiles = board.tiles.clone();
 	}
 	/**
 	 * Board dimension N.
@@ -34,77 +122,153 @@ public class Board {
 	 */
 	public int hamming() {
 		int count = 0;
-		int expect = 1;
-		for (int row = 0; row < dim; row++) {
-			for (int col = 0; col < dim; col++) {
-				if (blocks[row][col] != expect++) {
-					count++;
-				}
+		for (int index = 0; index < dim * dim; index++) {
+			int value = get(index);
+			if (value != 0 && value != index + 1) {
+				count++;
 			}
 		}
-		// skip empty block and return
-		return count - 1;
+		return count;
 	}
 	/**
-	 * Sum of Manhattan distances between blocks and goal.
+	 * Sum of Manhattan distances between blocks and goal, cached for boards
+	 * above PACKED_MAX.
 	 * @return
 	 */
 	public int manhattan() {
+		if (tiles == null) return scanManhattan();
+		// cross-check the cache (java -ea)
+		assert manhattan == scanManhattan();
+		return manhattan;
+	}
+	/**
+	 * Sum of Manhattan distances computed block by block, whatever the
+	 * dimension.
+	 * @return sum
+	 */
+	int scanManhattan() {
 		int sum = 0;
-		for (int row = 0; row < dim; row++) {
-			for (int col = 0; col < dim; col++) {
-				int value = blocks[row][col];
-				// skip empty block
-				if (value == 0) continue;
-				// identify current coordinate
-				int curRow = (value - 1) / dim;
-				int curCol = (value - 1) % dim;
-				// calculate the distance
-				sum += Math.abs(row - curRow) + Math.abs(col - curCol);
-			}
+		for (int index = 0; index < dim * dim; index++) {
+			int value = get(index);
+			// skip empty block
+			if (value == 0) continue;
+			sum += distance(value, index);
 		}
 		return sum;
 	}
 	/**
-	 * Check if this board is the goal board.
+	 * Check if this board is the goal board, in constant time: packed
+	 * blocks are compared with the goal's, others have no distance left.
 	 * @return true if goal board; otherwise false
 	 */
 	public boolean isGoal() {
-		if (blocks[dim - 1][dim - 1] != 0) return false;
-		int expect = 1;
-		for (int row = 0; row < dim; row++) {
-			for (int col = 0; col < dim; col++) {
-				// skip the trailing empty block
-				if (row == dim - 1 && col == dim - 1) continue;
-				if (blocks[row][col] != expect++) {
-					return false;
-				}
-			}
-		}
-		return true;
+		if (tiles == null) return packed == GOALS[dim];
+		return manhattan == 0;
 	}
 	/**
 	 * A board obtained by exchanging two adjacent blocks in the same row.
 	 * @return a board
 	 */
 	public Board twin() {
-		if (dim <= 1) return new Board(blocks);
+		Board twin = new Board(this);
+		if (dim <= 1) return twin;
 		// look for two consecutive non-empty blocks
-		int row = 0;
-		int col = 0;
-		match:
-		for (row = 0; row < dim; row++) {
-			int last = 0;
-			for (col = 0; col < dim; col++) {
-				if (blocks[row][col] != 0 && last != 0) {
-					break match;
-				} else {
-					last = blocks[row][col];
+		for (int row = 0; row < dim; row++) {
+			for (int col = 1; col < dim; col++) {
+				int index = row * dim + col;
+				if (get(index) != 0 && get(index - 1) != 0) {
+					twin.set(index, get(index - 1));
+					twin.set(index - 1, get(index));
+					return twin;
 				}
 			}
 		}
-		// exchange value with non-empty block in the same row
-		return exchange(row, col, 0, -1);
+		return twin;
+	}
+	/**
+	 * Can the goal board be reached from this board? The parity of the
+	 * permutation of blocks (counted by its cycles) must match the parity
+	 * of the empty block's distance from its goal position, in O(N^2).
+	 * @return true if solvable else false
+	 */
+	public boolean isSolvable() {
+		int size = dim * dim;
+		boolean[] visited = new boolean[size];
+		int cycles = 0;
+		for (int index = 0; index < size; index++) {
+			if (visited[index]) continue;
+			cycles++;
+			// follow the cycle through goal positions
+			for (int next = index; !visited[next]; next = goalIndex(get(next))) {
+				visited[next] = true;
+			}
+		}
+		int distance = (dim - 1 - row(blank)) + (dim - 1 - column(blank));
+		return (size - cycles) % 2 == distance % 2;
+	}
+	/**
+	 * Compact 64-bit key of the board: the packed blocks up to 4x4, the
+	 * Zobrist hash above (equal keys then mean equal boards with high
+	 * probability only).
+	 * @return key
+	 */
+	long key() {
+		if (tiles == null) return packed;
+		return hash;
+	}
+	/**
+	 * Hash code, folded from the Zobrist hash.
+	 * @return hash code
+	 */
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+	/**
+	 * Bytes of an encoded board.
+	 * @param dim dimension
+	 * @return size
+	 */
+	static int bytes(int dim) {
+		return dim > PACKED_MAX ? 2 * dim * dim : 8;
+	}
+	/**
+	 * Estimated bytes of a board on the heap: header and fields, and above
+	 * PACKED_MAX the array of its blocks.
+	 * @param dim dimension
+	 * @return size
+	 */
+	static int footprint(int dim) {
+		if (dim <= PACKED_MAX) return 40;
+		// array header, then the blocks rounded up to 8 bytes
+		return 40 + 16 + ((bytes(dim) + 7) & ~7);
+	}
+	/**
+	 * Encode the blocks at the buffer's position.
+	 * @param buffer
+	 */
+	void write(ByteBuffer buffer) {
+		if (tiles == null) {
+			buffer.putLong(packed);
+		} else {
+			for (char tile : tiles) buffer.putChar(tile);
+		}
+	}
+	/**
+	 * Decode a board written by write().
+	 * @param buffer
+	 * @param dim dimension
+	 * @return board
+	 */
+	static Board read(ByteBuffer buffer, int dim) {
+		Board board = new Board(dim);
+		long bits = (dim > PACKED_MAX) ? 0 : buffer.getLong();
+		for (int index = 0; index < dim * dim; index++) {
+			int value = (dim > PACKED_MAX) ? buffer.getChar() : (int) (bits >>> (index << 2)) & 0xF;
+			board.set(index, value);
+			if (value == 0) board.blank = (char) index;
+		}
+		return board;
 	}
 	/**
 	 * Does this board equal y?
@@ -115,17 +279,11 @@ public class Board {
 		if (y == null) return false;
 		if (y instanceof Board) {
 			Board board = (Board) y;
-			// check if dimension size matches
-			if (board.dim != this.dim) return false;
+			// check if dimension size and hash match
+			if (board.dim != this.dim || board.hash != this.hash) return false;
 			// check each value
-			for (int row = 0; row < dim; row++) {
-				for (int col = 0; col < dim; col++) {
-					if (this.blocks[row][col] != board.blocks[row][col]) {
-						return false;
-					}
-				}
-			}
-			return true;
+			if (tiles == null) return this.packed == board.packed;
+			return Arrays.equals(this.tiles, board.tiles);
 		} else {
 			return false;
 		}
@@ -136,73 +294,229 @@ public class Board {
 	 */
 	public Iterable<Board> neighbors() {
 		Queue<Board> queue = new Queue<Board>();
-		// look for empty block
-		int row = 0;
-		int col = 0;
-		match:
-		for (row = 0; row < dim; row++) {
-			for (col = 0; col < dim; col++) {
-				if (blocks[row][col] == 0) {
-					break match;
-				}
-			}
-		}
 		// Enqueue all possible neighbors
-		if (row > 0) {
-			queue.enqueue(exchange(row, col, -1, 0));
-		}
-		if (row < dim - 1) {
-			queue.enqueue(exchange(row, col, 1, 0));
+		for (int direction = UP; direction <= RIGHT; direction++) {
+			if (canMove(direction)) {
+				queue.enqueue(slide(direction));
+			}
 		}
-		if (col > 0) {
-			queue.enqueue(exchange(row, col, 0, -1));
+		return queue;
+	}
+	/**
+	 * Index of the empty block.
+	 * @return row-major index
+	 */
+	int blank() {
+		return blank;
+	}
+	/**
+	 * Index of the block swapped with the empty block by a move.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return row-major index
+	 */
+	int target(int direction) {
+		return blank + offset(direction);
+	}
+	/**
+	 * Can the empty block move toward the direction?
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return true if the move stays inside the board
+	 */
+	boolean canMove(int direction) {
+		switch (direction) {
+		case UP:    return blank >= dim;
+		case DOWN:  return blank < dim * (dim - 1);
+		case LEFT:  return column(blank) != 0;
+		default:    return column(blank) != dim - 1;
 		}
-		if (col < dim - 1) {
-			queue.enqueue(exchange(row, col, 0, 1));
+	}
+	/**
+	 * Independent copy of this board, to be moved in place.
+	 * @return a new board
+	 */
+	Board copy() {
+		return new Board(this);
+	}
+	/**
+	 * Neighboring board with the empty block moved toward the direction.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return a new board
+	 */
+	Board slide(int direction) {
+		Board board = new Board(this);
+		board.move(direction);
+		return board;
+	}
+	/**
+	 * Move the empty block toward the direction in place.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 */
+	void move(int direction) {
+		int target = target(direction);
+		set(blank, get(target));
+		set(target, 0);
+		blank = (char) target;
+	}
+	/**
+	 * Change of the Manhattan distance if the empty block moves toward the
+	 * direction, in constant time.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return difference between the neighbor's and this board's distance
+	 */
+	int manhattanDelta(int direction) {
+		int target = target(direction);
+		int value = get(target);
+		return distance(value, blank) - distance(value, target);
+	}
+	/**
+	 * Change of the Hamming distance if the empty block moves toward the
+	 * direction, in constant time.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return difference between the neighbor's and this board's distance
+	 */
+	int hammingDelta(int direction) {
+		int target = target(direction);
+		int value = get(target);
+		int before = (target == value - 1) ? 0 : 1;
+		int after = (blank == value - 1) ? 0 : 1;
+		return after - before;
+	}
+	/**
+	 * Direction which undoes a move.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return opposite direction
+	 */
+	static int opposite(int direction) {
+		return direction ^ 1;
+	}
+	/**
+	 * Index difference of a move.
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return offset added to the index of the empty block
+	 */
+	private int offset(int direction) {
+		switch (direction) {
+		case UP:    return -dim;
+		case DOWN:  return dim;
+		case LEFT:  return -1;
+		default:    return 1;
 		}
-		
-		return queue;
 	}
 	/**
-	 * 
-	 * @param row index of row
-	 * @param col index of column
-	 * @param dRow movement of row
-	 * @param dCol movement of column
-	 * @return exchanged result as Board object
+	 * Manhattan distance of a block between an index and its goal.
+	 * @param value non-empty block
+	 * @param index row-major index
+	 * @return distance
 	 */
-	private Board exchange(int row, int col, int dRow, int dCol) {
-		int[][] copy = clone(blocks);
-		int temp = copy[row][col];
-		copy[row][col] = copy[row + dRow][col + dCol];
-		copy[row + dRow][col + dCol] = temp;
-		return new Board(copy);
+	private int distance(int value, int index) {
+		char[] cells = GRIDS[dim].cells;
+		int at = index << 1;
+		int goal = (value - 1) << 1;
+		return Math.abs(cells[at] - cells[goal]) + Math.abs(cells[at + 1] - cells[goal + 1]);
 	}
 	/**
-	 * 
-	 * @param input
-	 * @return
+	 * Row of a row-major index.
+	 * @param index
+	 * @return row
+	 */
+	private int row(int index) {
+		return GRIDS[dim].cells[index << 1];
+	}
+	/**
+	 * Column of a row-major index.
+	 * @param index
+	 * @return column
+	 */
+	private int column(int index) {
+		return GRIDS[dim].cells[(index << 1) + 1];
+	}
+	/**
+	 * Row-major index of a block in the goal board.
+	 * @param value value of block
+	 * @return index, the empty block belongs to the last one
+	 */
+	private int goalIndex(int value) {
+		return value == 0 ? dim * dim - 1 : value - 1;
+	}
+	/**
+	 * Block at the row-major index.
+	 * @param index row-major index
+	 * @return value of block
 	 */
-	private int[][] clone(int[][] input) {
-		int[][] copy = new int[input.length][input[0].length];
-		for (int row = 0; row < input.length; row++) {
-			copy[row] = Arrays.copyOf(input[row], input[row].length);
+	int get(int index) {
+		if (tiles == null) return (int) (packed >>> (index << 2)) & 0xF;
+		return tiles[index];
+	}
+	/**
+	 * Zobrist key of a block at an index. Keys are drawn by mixing the pair
+	 * with SplitMix64 instead of read from an N^4 table of random numbers,
+	 * which would not fit for large boards.
+	 * @param index row-major index
+	 * @param value value of block
+	 * @return key
+	 */
+	private long zobrist(int index, int value) {
+		long z = ((long) index * dim * dim + value + 1) * 0x9e3779b97f4a7c15L;
+		z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+		z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+		return z ^ (z >>> 31);
+	}
+	/**
+	 * Replace the block at the row-major index, updating the hash, and the
+	 * Manhattan distance of unpacked boards.
+	 * @param index row-major index
+	 * @param value value of block
+	 */
+	private void set(int index, int value) {
+		int old = get(index);
+		hash ^= zobrist(index, old) ^ zobrist(index, value);
+		if (tiles == null) {
+			int shift = index << 2;
+			packed = (packed & ~(0xFL << shift)) | ((long) value << shift);
+		} else {
+			if (old != 0) manhattan -= distance(old, index);
+			if (value != 0) manhattan += distance(value, index);
+			tiles[index] = (char) value;
 		}
-		return copy;
 	}
 	/**
 	 * String representation of the board.
 	 * @return string representation of the board
 	 */
 	public String toString() {
-		StringBuilder s = new StringBuilder();
-		s.append(dim + "\n");
+		StringBuilder s = new StringBuilder(4 * dim * (dim + 1) + 8);
+		s.append(dimension()).append('\n');
 		for (int row = 0; row < dim; row++) {
 			for (int col = 0; col < dim; col++) {
-				s.append(String.format("%2d ", blocks[row][col]));
+				// same layout as "%2d "
+				int value = get(row * dim + col);
+				if (value < 10) s.append(' ');
+				s.append(value).append(' ');
 			}
-			s.append("\n");
+			s.append('\n');
 		}
 		return s.toString();
 	}
+	/**
+	 * Row and column of each row-major index of a dimension, interleaved.
+	 * The final field publishes a table safely to other threads.
+	 * @author etlove
+	 */
+	private static final class Grid {
+		/**
+		 * Row then column of each index
+		 */
+		private final char[] cells;
+		/**
+		 * 
+		 * @param dim dimension
+		 */
+		private Grid(int dim) {
+			cells = new char[2 * dim * dim];
+			for (int index = 0; index < dim * dim; index++) {
+				cells[index << 1] = (char) (index / dim);
+				cells[(index << 1) + 1] = (char) (index % dim);
+			}
+		}
+	}
 }
@@ -0,0 +1,127 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.InputMismatchException;
+
+/**
+ * Reader of board files: the dimension N followed by the N^2 blocks in
+ * row-major order, separated by whitespace.
+ * <p>
+ * Digits are parsed straight from a byte buffer, without the tokenizer and
+ * regular expressions of In, so that boards with N in the hundreds load
+ * quickly. A stream may hold several boards one after the other.
+ * </p>
+ * @author etlove
+ */
+public class BoardReader implements Closeable {
+	/**
+	 * Source of bytes
+	 */
+	private final InputStream in;
+	/**
+	 * Bytes read ahead
+	 */
+	private final byte[] buffer = new byte[1 << 16];
+	/**
+	 * Position of the next byte in the buffer
+	 */
+	private int position;
+	/**
+	 * Number of bytes in the buffer
+	 */
+	private int limit;
+	/**
+	 *
+	 * @param in source of bytes, closed with the reader
+	 */
+	public BoardReader(InputStream in) {
+		this.in = in;
+	}
+	/**
+	 * Read the only board of a file.
+	 * @param file
+	 * @return board
+	 * @throws IOException if the file cannot be read
+	 * @throws InputMismatchException if the file does not hold a board
+	 */
+	public static Board read(File file) throws IOException {
+		BoardReader reader = new BoardReader(new FileInputStream(file));
+		try {
+			Board board = reader.next();
+			if (board == null) throw new InputMismatchException("No board in " + file);
+			return board;
+		} finally {
+			reader.close();
+		}
+	}
+	/**
+	 * Read the next board.
+	 * @return board, null at the end of the stream
+	 * @throws IOException if the stream cannot be read
+	 * @throws InputMismatchException if the stream ends inside a board or
+	 * holds something else than numbers
+	 */
+	public Board next() throws IOException {
+		if (!skip()) return null;
+		int N = readInt();
+		int[][] blocks = new int[N][N];
+		for (int i = 0; i < N; i++) {
+			for (int j = 0; j < N; j++) {
+				if (!skip()) throw new InputMismatchException("Board ends after " + (i * N + j) + " blocks");
+				blocks[i][j] = readInt();
+			}
+		}
+		return new Board(blocks);
+	}
+	/**
+	 * Close the stream.
+	 * @throws IOException
+	 */
+	public void close() throws IOException {
+		in.close();
+	}
+	/**
+	 * Skip whitespace.
+	 * @return false at the end of the stream
+	 * @throws IOException
+	 */
+	private boolean skip() throws IOException {
+		while (true) {
+			if (position == limit && !fill()) return false;
+			if (buffer[position] > ' ') return true;
+			position++;
+		}
+	}
+	/**
+	 * Parse a non-negative number at the position.
+	 * @return number
+	 * @throws IOException
+	 */
+	private int readInt() throws IOException {
+		int value = 0;
+		while (position < limit || fill()) {
+			int c = buffer[position];
+			if (c <= ' ') break;
+			if (c < '0' || c > '9' || value > (Integer.MAX_VALUE - 9) / 10) {
+				throw new InputMismatchException("Not a block: " + (char) c);
+			}
+			value = value * 10 + (c - '0');
+			position++;
+		}
+		return value;
+	}
+	/**
+	 * Read more bytes into the buffer.
+	 * @return false at the end of the stream
+	 * @throws IOException
+	 */
+	private boolean fill() throws IOException {
+		limit = in.read(buffer, 0, buffer.length);
+		position = 0;
+		if (limit > 0) return true;
+		limit = 0;
+		return false;
+	}
+}
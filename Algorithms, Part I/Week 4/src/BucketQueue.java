@@ -0,0 +1,328 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * Priority queue of small non-negative integer priorities, one bucket per
+ * priority.
+ * <p>
+ * Insertion is O(1). Deleting the minimum scans forward to the next
+ * non-empty bucket, which is amortized O(1) while priorities never drop
+ * below the last minimum, as in A* with a consistent heuristic. Items of
+ * equal priority come out last in, first out, so deeper nodes go first.
+ * </p>
+ * <p>
+ * With a codec and a capacity, the queue keeps at most about capacity
+ * items in memory: past it, buckets of the highest priorities are encoded
+ * to memory-mapped temporary files until half of the capacity is left, and
+ * read back once their priority is the lowest left. If the bucket of the
+ * lowest priority alone is too large, the bottom of its stack, which comes
+ * out last, is written too. Closing the queue deletes the files still on
+ * disk.
+ * </p>
+ * @author etlove
+ * @param <Item>
+ */
+public class BucketQueue<Item> implements Closeable {
+	/**
+	 * Fixed-size binary encoding of items.
+	 * @param <Item>
+	 */
+	public interface Codec<Item> {
+		/**
+		 * Bytes of an encoded item.
+		 * @return size
+		 */
+		int size();
+		/**
+		 * Encode an item at the buffer's position.
+		 * @param buffer
+		 * @param item
+		 */
+		void write(ByteBuffer buffer, Item item);
+		/**
+		 * Decode an item at the buffer's position.
+		 * @param buffer
+		 * @return item
+		 */
+		Item read(ByteBuffer buffer);
+	}
+	/**
+	 * Items of a bucket written to disk, segments of a bucket are chained.
+	 */
+	private static class Segment {
+		/**
+		 * Temporary file of encoded items
+		 */
+		private final File file;
+		/**
+		 * Number of items in the file
+		 */
+		private final int count;
+		/**
+		 * Earlier segment of the same priority
+		 */
+		private final Segment next;
+		/**
+		 * 
+		 * @param file
+		 * @param count
+		 * @param next
+		 */
+		private Segment(File file, int count, Segment next) {
+			this.file = file;
+			this.count = count;
+			this.next = next;
+		}
+	}
+	/**
+	 * Stack of items of each priority
+	 */
+	private Object[][] buckets;
+	/**
+	 * Number of items of each priority in memory
+	 */
+	private int[] counts;
+	/**
+	 * Number of items of each priority on disk
+	 */
+	private int[] spilled;
+	/**
+	 * Segments on disk of each priority, the latest first
+	 */
+	private Segment[] segments;
+	/**
+	 * Lowest priority which may hold an item
+	 */
+	private int min;
+	/**
+	 * Number of items
+	 */
+	private int size;
+	/**
+	 * Number of items in memory
+	 */
+	private int resident;
+	/**
+	 * Encoding of spilled items, null to keep everything in memory
+	 */
+	private final Codec<Item> codec;
+	/**
+	 * Items kept in memory before spilling
+	 */
+	private final int capacity;
+	/**
+	 * Construct an empty queue.
+	 */
+	public BucketQueue() {
+		this(null, Integer.MAX_VALUE);
+	}
+	/**
+	 * Construct an empty queue spilling to disk past a capacity.
+	 * @param codec encoding of items
+	 * @param capacity items kept in memory
+	 */
+	public BucketQueue(Codec<Item> codec, int capacity) {
+		this.codec = codec;
+		this.capacity = capacity;
+		buckets = new Object[64][];
+		counts = new int[64];
+		spilled = new int[64];
+		segments = new Segment[64];
+	}
+	/**
+	 * Is the queue empty?
+	 * @return true if empty else false
+	 */
+	public boolean isEmpty() {
+		return size == 0;
+	}
+	/**
+	 * Number of items in the queue.
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * Number of items in memory.
+	 * @return resident items
+	 */
+	public int resident() {
+		return resident;
+	}
+	/**
+	 * Add an item.
+	 * @param priority non-negative priority
+	 * @param item
+	 */
+	public void insert(int priority, Item item) {
+		if (priority < 0) throw new IllegalArgumentException("Negative priority " + priority);
+		if (priority >= buckets.length) grow(priority);
+		push(priority, item);
+		if (size++ == 0 || priority < min) min = priority;
+		// spill down to half of the capacity, so spills stay few and large
+		if (resident > capacity) spill(capacity / 2);
+	}
+	/**
+	 * Lowest priority in the queue.
+	 * @return priority
+	 */
+	public int minPriority() {
+		if (isEmpty()) throw new NoSuchElementException("Priority queue underflow");
+		while (counts[min] == 0 && spilled[min] == 0) min++;
+		return min;
+	}
+	/**
+	 * Remove and return an item of the lowest priority, the last inserted.
+	 * @return item
+	 */
+	@SuppressWarnings("unchecked")
+	public Item delMin() {
+		int priority = minPriority();
+		if (counts[priority] == 0) load(priority);
+		int count = --counts[priority];
+		Object[] bucket = buckets[priority];
+		Item item = (Item) bucket[count];
+		bucket[count] = null;
+		size--;
+		resident--;
+		return item;
+	}
+	/**
+	 * Push an item on the stack of its priority.
+	 * @param priority
+	 * @param item
+	 */
+	private void push(int priority, Item item) {
+		Object[] bucket = buckets[priority];
+		int count = counts[priority];
+		if (bucket == null) {
+			bucket = new Object[16];
+			buckets[priority] = bucket;
+		} else if (count == bucket.length) {
+			Object[] copy = new Object[count * 2];
+			System.arraycopy(bucket, 0, copy, 0, count);
+			bucket = copy;
+			buckets[priority] = bucket;
+		}
+		bucket[count] = item;
+		counts[priority] = count + 1;
+		resident++;
+	}
+	/**
+	 * Write items to disk until at most target of them are left in memory,
+	 * the buckets of the highest priorities first, then the bottom of the
+	 * bucket of the lowest priority.
+	 * @param target items left in memory
+	 */
+	private void spill(int target) {
+		minPriority();
+		for (int priority = buckets.length - 1; priority > min && resident > target; priority--) {
+			if (counts[priority] > 0) write(priority, counts[priority]);
+		}
+		if (resident > target) write(min, resident - target);
+	}
+	/**
+	 * Move the bottom items of the stack of a priority to a new segment.
+	 * @param priority
+	 * @param count number of items
+	 */
+	@SuppressWarnings("unchecked")
+	private void write(int priority, int count) {
+		Object[] bucket = buckets[priority];
+		File file = null;
+		try {
+			file = File.createTempFile("frontier", ".bin");
+			RandomAccessFile raf = new RandomAccessFile(file, "rw");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0,
+						(long) count * codec.size());
+				for (int i = 0; i < count; i++) {
+					codec.write(buffer, (Item) bucket[i]);
+				}
+			} finally {
+				raf.close();
+			}
+			segments[priority] = new Segment(file, count, segments[priority]);
+		} catch (IOException e) {
+			if (file != null) file.delete();
+			throw new UncheckedIOException("Cannot spill the frontier", e);
+		}
+		spilled[priority] += count;
+		resident -= count;
+		int left = counts[priority] - count;
+		if (left == 0) {
+			buckets[priority] = null;
+		} else {
+			System.arraycopy(bucket, count, bucket, 0, left);
+			Arrays.fill(bucket, left, counts[priority], null);
+		}
+		counts[priority] = left;
+	}
+	/**
+	 * Read back the latest segment of a priority.
+	 * @param priority
+	 */
+	private void load(int priority) {
+		Segment segment = segments[priority];
+		segments[priority] = segment.next;
+		spilled[priority] -= segment.count;
+		try {
+			RandomAccessFile raf = new RandomAccessFile(segment.file, "r");
+			try {
+				MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0,
+						(long) segment.count * codec.size());
+				for (int i = 0; i < segment.count; i++) {
+					push(priority, codec.read(buffer));
+				}
+			} finally {
+				raf.close();
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Cannot read back the frontier", e);
+		}
+		segment.file.delete();
+	}
+	/**
+	 * Delete the segments still on disk, their items are lost. The queue
+	 * keeps the items in memory and may spill again.
+	 */
+	public void close() {
+		for (int priority = 0; priority < segments.length; priority++) {
+			for (Segment segment = segments[priority]; segment != null; segment = segment.next) {
+				segment.file.delete();
+				size -= segment.count;
+			}
+			segments[priority] = null;
+			spilled[priority] = 0;
+		}
+	}
+	/**
+	 * Make room for a priority.
+	 * @param priority
+	 */
+	private void grow(int priority) {
+		int length = buckets.length;
+		while (length <= priority) length *= 2;
+		Object[][] buckets = new Object[length][];
+		int[] counts = new int[length];
+		int[] spilled = new int[length];
+		Segment[] segments = new Segment[length];
+		System.arraycopy(this.buckets, 0, buckets, 0, this.buckets.length);
+		System.arraycopy(this.counts, 0, counts, 0, this.counts.length);
+		System.arraycopy(this.spilled, 0, spilled, 0, this.spilled.length);
+		System.arraycopy(this.segments, 0, segments, 0, this.segments.length);
+		this.buckets = buckets;
+		this.counts = counts;
+		this.spilled = spilled;
+		this.segments = segments;
+	}
+}
@@ -0,0 +1,48 @@
+/**
+ * Admissible estimate of the moves left toward the goal board.
+ * <p>
+ * Solver evaluates the initial board from scratch and every other board
+ * from its parent's value, so implementations may recompute only the part
+ * that a single move changes.
+ * </p>
+ * @author etlove
+ */
+public interface Heuristic {
+	/**
+	 * Sum of Manhattan distances between blocks and goal.
+	 */
+	Heuristic MANHATTAN = new Heuristic() {
+		public int estimate(Board board) {
+			return board.manhattan();
+		}
+		public int update(Board board, int value, int direction) {
+			return value - board.manhattanDelta(Board.opposite(direction));
+		}
+	};
+	/**
+	 * Number of blocks out of place.
+	 */
+	Heuristic HAMMING = new Heuristic() {
+		public int estimate(Board board) {
+			return board.hamming();
+		}
+		public int update(Board board, int value, int direction) {
+			return value - board.hammingDelta(Board.opposite(direction));
+		}
+	};
+	/**
+	 * Estimate a board from scratch.
+	 * @param board board to estimate
+	 * @return estimated moves toward goal, 0 only for the goal board
+	 */
+	int estimate(Board board);
+	/**
+	 * Estimate a board whose empty block has just moved.
+	 * @param board board after the move
+	 * @param value estimate of the board before the move
+	 * @param direction move of the empty block, one of Board.UP, Board.DOWN,
+	 * Board.LEFT and Board.RIGHT
+	 * @return estimated moves toward goal, 0 only for the goal board
+	 */
+	int update(Board board, int value, int direction);
+}
@@ -0,0 +1,104 @@
+/**
+ * Manhattan distance plus linear conflicts.
+ * <p>
+ * Blocks sharing a row (or column) with their goal, but in reversed order,
+ * must leave the line to pass each other. Each line adds two moves per
+ * block outside its longest run in goal order.
+ * </p>
+ * @author etlove
+ */
+public class LinearConflict implements Heuristic {
+	/**
+	 * Scratch runs of each thread, as the heuristic is shared by searches
+	 */
+	private static final ThreadLocal<int[]> TAILS = new ThreadLocal<int[]>();
+	/**
+	 * Manhattan distance and conflicts of every row and column.
+	 * @param board board to estimate
+	 * @return estimated moves toward goal
+	 */
+	public int estimate(Board board) {
+		int sum = board.manhattan();
+		int[] tails = tails(board.dimension());
+		for (int line = 0; line < board.dimension(); line++) {
+			sum += conflicts(board, line, true, -1, -1, tails);
+			sum += conflicts(board, line, false, -1, -1, tails);
+		}
+		return sum;
+	}
+	/**
+	 * Only the two lines crossed by the moved block are recounted, a
+	 * vertical move keeps the order of its column and vice versa.
+	 * @param board board after the move
+	 * @param value estimate of the board before the move
+	 * @param direction move of the empty block
+	 * @return estimated moves toward goal
+	 */
+	public int update(Board board, int value, int direction) {
+		int dim = board.dimension();
+		int back = Board.opposite(direction);
+		// the block moved from the empty block's position to its neighbor
+		int from = board.blank();
+		int to = board.target(back);
+		boolean row = direction == Board.UP || direction == Board.DOWN;
+		int before = row ? from / dim : from % dim;
+		int after = row ? to / dim : to % dim;
+		int sum = value - board.manhattanDelta(back);
+		int[] tails = tails(dim);
+		sum += conflicts(board, before, row, -1, -1, tails);
+		sum += conflicts(board, after, row, -1, -1, tails);
+		sum -= conflicts(board, before, row, from, to, tails);
+		sum -= conflicts(board, after, row, from, to, tails);
+		return sum;
+	}
+	/**
+	 * Scratch array of the thread, so that estimates allocate nothing.
+	 * @param dim dimension
+	 * @return array of at least dim ints
+	 */
+	private static int[] tails(int dim) {
+		int[] tails = TAILS.get();
+		if (tails == null || tails.length < dim) {
+			tails = new int[dim];
+			TAILS.set(tails);
+		}
+		return tails;
+	}
+	/**
+	 * Moves added by the conflicts of a line.
+	 * @param board board to estimate
+	 * @param line index of row or column
+	 * @param row true for a row, false for a column
+	 * @param swapA index read as swapB, -1 for none
+	 * @param swapB index read as swapA, -1 for none
+	 * @param tails scratch for the smallest tail of increasing runs by
+	 *            length (patience sorting)
+	 * @return twice the blocks to remove from the line
+	 */
+	private static int conflicts(Board board, int line, boolean row, int swapA, int swapB, int[] tails) {
+		int dim = board.dimension();
+		int count = 0;
+		int longest = 0;
+		for (int k = 0; k < dim; k++) {
+			int index = row ? line * dim + k : k * dim + line;
+			if (index == swapA) index = swapB;
+			else if (index == swapB) index = swapA;
+			int value = board.get(index);
+			if (value == 0) continue;
+			int goalLine = row ? (value - 1) / dim : (value - 1) % dim;
+			if (goalLine != line) continue;
+			int goal = row ? (value - 1) % dim : (value - 1) / dim;
+			count++;
+			int lo = 0;
+			int hi = longest;
+			while (lo < hi) {
+				int mid = (lo + hi) >>> 1;
+				if (tails[mid] < goal) lo = mid + 1;
+				else hi = mid;
+			}
+			tails[lo] = goal;
+			if (lo == longest) longest++;
+		}
+		return 2 * (count - longest);
+	}
+}
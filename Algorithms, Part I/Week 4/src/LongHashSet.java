@@ -0,0 +1,115 @@
+import java.util.Arrays;
+
+/**
+ * Set of long keys with open addressing and linear probing, without an
+ * object per entry.
+ * @author etlove
+ */
+public class LongHashSet {
+	/**
+	 * Key marking an empty slot, stored apart when added.
+	 */
+	private static final long EMPTY = 0L;
+	/**
+	 * Slots, length is a power of 2
+	 */
+	private long[] keys;
+	/**
+	 * Number of keys in slots
+	 */
+	private int size;
+	/**
+	 * Is the empty marker itself in the set?
+	 */
+	private boolean hasEmpty;
+	/**
+	 * Construct an empty set.
+	 */
+	public LongHashSet() {
+		this(16);
+	}
+	/**
+	 * Construct an empty set sized for the expected number of keys.
+	 * @param expected
+	 */
+	public LongHashSet(int expected) {
+		int capacity = 16;
+		while (capacity < expected * 2) capacity <<= 1;
+		keys = new long[capacity];
+	}
+	/**
+	 * Number of keys in the set.
+	 * @return size
+	 */
+	public int size() {
+		return size + (hasEmpty ? 1 : 0);
+	}
+	/**
+	 * Does the set contain the key?
+	 * @param key
+	 * @return true if present else false
+	 */
+	public boolean contains(long key) {
+		if (key == EMPTY) return hasEmpty;
+		int mask = keys.length - 1;
+		for (int i = index(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) return true;
+		}
+		return false;
+	}
+	/**
+	 * Add the key to the set.
+	 * @param key
+	 * @return true if added, false if already present
+	 */
+	public boolean add(long key) {
+		if (key == EMPTY) {
+			if (hasEmpty) return false;
+			hasEmpty = true;
+			return true;
+		}
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) return false;
+		}
+		keys[i] = key;
+		// keep the load factor at most 1/2
+		if (++size * 2 > keys.length) resize();
+		return true;
+	}
+	/**
+	 * Remove all keys.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		hasEmpty = false;
+	}
+	/**
+	 * Double the slots and insert the keys again.
+	 */
+	private void resize() {
+		long[] old = keys;
+		keys = new long[old.length * 2];
+		int mask = keys.length - 1;
+		for (long key : old) {
+			if (key == EMPTY) continue;
+			int i = index(key, mask);
+			while (keys[i] != EMPTY) i = (i + 1) & mask;
+			keys[i] = key;
+		}
+	}
+	/**
+	 * Home slot of a key, bits are mixed so that packed boards spread.
+	 * @param key
+	 * @param mask
+	 * @return slot
+	 */
+	private static int index(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+}
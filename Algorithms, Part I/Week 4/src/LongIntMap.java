@@ -0,0 +1,122 @@
+import java.util.Arrays;
+
+/**
+ * Map of long keys to int values with open addressing and linear probing,
+ * without an object per entry.
+ * @author etlove
+ */
+public class LongIntMap {
+	/**
+	 * Key marking an empty slot, stored apart when put.
+	 */
+	private static final long EMPTY = 0L;
+	/**
+	 * Slots, length is a power of 2
+	 */
+	private long[] keys;
+	/**
+	 * Value of each slot
+	 */
+	private int[] values;
+	/**
+	 * Number of keys in slots
+	 */
+	private int size;
+	/**
+	 * Is the empty marker itself in the map?
+	 */
+	private boolean hasEmpty;
+	/**
+	 * Value of the empty marker
+	 */
+	private int emptyValue;
+	/**
+	 * Construct an empty map.
+	 */
+	public LongIntMap() {
+		keys = new long[16];
+		values = new int[16];
+	}
+	/**
+	 * Number of keys in the map.
+	 * @return size
+	 */
+	public int size() {
+		return size + (hasEmpty ? 1 : 0);
+	}
+	/**
+	 * Value of the key.
+	 * @param key
+	 * @param missing value returned if the key is absent
+	 * @return value
+	 */
+	public int get(long key, int missing) {
+		if (key == EMPTY) return hasEmpty ? emptyValue : missing;
+		int mask = keys.length - 1;
+		for (int i = index(key, mask); keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) return values[i];
+		}
+		return missing;
+	}
+	/**
+	 * Associate the value with the key.
+	 * @param key
+	 * @param value
+	 */
+	public void put(long key, int value) {
+		if (key == EMPTY) {
+			hasEmpty = true;
+			emptyValue = value;
+			return;
+		}
+		int mask = keys.length - 1;
+		int i = index(key, mask);
+		for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+			if (keys[i] == key) {
+				values[i] = value;
+				return;
+			}
+		}
+		keys[i] = key;
+		values[i] = value;
+		// keep the load factor at most 1/2
+		if (++size * 2 > keys.length) resize();
+	}
+	/**
+	 * Remove all keys.
+	 */
+	public void clear() {
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		hasEmpty = false;
+	}
+	/**
+	 * Double the slots and insert the keys again.
+	 */
+	private void resize() {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new long[oldKeys.length * 2];
+		values = new int[keys.length];
+		int mask = keys.length - 1;
+		for (int j = 0; j < oldKeys.length; j++) {
+			if (oldKeys[j] == EMPTY) continue;
+			int i = index(oldKeys[j], mask);
+			while (keys[i] != EMPTY) i = (i + 1) & mask;
+			keys[i] = oldKeys[j];
+			values[i] = oldValues[j];
+		}
+	}
+	/**
+	 * Home slot of a key, bits are mixed so that packed boards spread.
+	 * @param key
+	 * @param mask
+	 * @return slot
+	 */
+	private static int index(long key, int mask) {
+		key ^= key >>> 33;
+		key *= 0xff51afd7ed558ccdL;
+		key ^= key >>> 33;
+		return (int) key & mask;
+	}
+}
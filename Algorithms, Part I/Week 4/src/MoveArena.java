@@ -0,0 +1,93 @@
+/**
+ * Parent links of expanded search nodes in a single int array.
+ * <p>
+ * Each slot holds the parent's slot and, in its two lowest bits, the move
+ * of the empty block from the parent. Boards are not kept: a path is read
+ * back as moves and replayed from the initial board.
+ * </p>
+ * @author etlove
+ */
+public class MoveArena {
+	/**
+	 * Parent of a root node.
+	 */
+	public static final int ROOT = -1;
+	/**
+	 * (parent + 1) << 2 | direction of each slot
+	 */
+	private int[] links;
+	/**
+	 * Number of slots used
+	 */
+	private int size;
+	/**
+	 * Construct an empty arena.
+	 */
+	public MoveArena() {
+		links = new int[1024];
+	}
+	/**
+	 * Number of nodes in the arena.
+	 * @return size
+	 */
+	public int size() {
+		return size;
+	}
+	/**
+	 * Add a node.
+	 * @param parent slot of the parent, ROOT for a root node
+	 * @param direction move of the empty block from the parent
+	 * @return slot of the node
+	 */
+	public int add(int parent, int direction) {
+		if (size == links.length) {
+			int[] copy = new int[size * 2];
+			System.arraycopy(links, 0, copy, 0, size);
+			links = copy;
+		}
+		links[size] = ((parent + 1) << 2) | direction;
+		return size++;
+	}
+	/**
+	 * Slot of the parent of a node.
+	 * @param slot
+	 * @return slot of the parent, ROOT for a root node
+	 */
+	public int parent(int slot) {
+		return (links[slot] >>> 2) - 1;
+	}
+	/**
+	 * Move of the empty block leading to a node.
+	 * @param slot
+	 * @return direction, meaningless for a root node
+	 */
+	public int direction(int slot) {
+		return links[slot] & 3;
+	}
+	/**
+	 * Moves from the root to a node.
+	 * @param slot slot of the node, ROOT for none
+	 * @return number of moves
+	 */
+	public int depth(int slot) {
+		int depth = 0;
+		for (int node = slot; node != ROOT && parent(node) != ROOT; node = parent(node)) {
+			depth++;
+		}
+		return depth;
+	}
+	/**
+	 * Moves of the empty block from the root to a node.
+	 * @param slot slot of the node, ROOT for none
+	 * @return directions in order
+	 */
+	public int[] path(int slot) {
+		int[] path = new int[depth(slot)];
+		int node = slot;
+		for (int i = path.length - 1; i >= 0; i--) {
+			path[i] = direction(node);
+			node = parent(node);
+		}
+		return path;
+	}
+}
@@ -0,0 +1,413 @@
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Arrays;
+
+/**
+ * Disjoint additive pattern databases for the slider puzzle.
+ * <p>
+ * Each group of blocks has a table of the moves of its own blocks needed to
+ * bring them home, other blocks being treated as indistinct. Only moves of
+ * the group's blocks are counted, so the tables of disjoint groups can be
+ * added and stay admissible. The empty block takes part in the search,
+ * since a block only moves into it, but the table keeps the fewest moves
+ * over its positions. That keeps the estimate admissible but not
+ * consistent: a move may lower it by more than one. Entries are indexed by
+ * the rank of the blocks' positions as a partial permutation, computed
+ * once, saved as one byte per entry and memory-mapped afterwards.
+ * </p>
+ * @author etlove
+ */
+public class PatternDatabase implements Heuristic {
+	/**
+	 * Marker of entries not reached yet by the search.
+	 */
+	private static final int UNSEEN = 0xFF;
+	/**
+	 * Dimension
+	 */
+	private final int dim;
+	/**
+	 * Blocks of each group
+	 */
+	private final int[][] groups;
+	/**
+	 * Group of each block
+	 */
+	private final int[] groupOf;
+	/**
+	 * Slot of each block in its group
+	 */
+	private final int[] slotOf;
+	/**
+	 * Mapped tables, one per group
+	 */
+	private final MappedByteBuffer[] tables;
+	/**
+	 * Open the default databases of a dimension, building missing ones.
+	 * @param dim dimension of boards
+	 * @param directory directory of database files
+	 * @throws IOException if a table cannot be written or mapped
+	 */
+	public PatternDatabase(int dim, File directory) throws IOException {
+		this(dim, partition(dim), directory);
+	}
+	/**
+	 * Open the databases of a partition, building missing ones.
+	 * @param dim dimension of boards
+	 * @param groups disjoint groups covering every non-empty block
+	 * @param directory directory of database files
+	 * @throws IOException if a table cannot be written or mapped
+	 */
+	public PatternDatabase(int dim, int[][] groups, File directory) throws IOException {
+		this.dim = dim;
+		this.groups = groups;
+		int size = dim * dim;
+		groupOf = new int[size];
+		slotOf = new int[size];
+		Arrays.fill(groupOf, -1);
+		for (int group = 0; group < groups.length; group++) {
+			// the search keeps a byte per arrangement and position of the empty block
+			if (groups[group].length > 8 || (double) permutations(size, groups[group].length) * size > Integer.MAX_VALUE) {
+				throw new IllegalArgumentException("Group " + group + " is too large");
+			}
+			for (int slot = 0; slot < groups[group].length; slot++) {
+				int value = groups[group][slot];
+				if (value <= 0 || value >= size || groupOf[value] != -1) {
+					throw new IllegalArgumentException("Groups are not disjoint blocks: " + value);
+				}
+				groupOf[value] = group;
+				slotOf[value] = slot;
+			}
+		}
+		for (int value = 1; value < size; value++) {
+			if (groupOf[value] == -1) {
+				throw new IllegalArgumentException("Block " + value + " is not in any group");
+			}
+		}
+		tables = new MappedByteBuffer[groups.length];
+		for (int group = 0; group < groups.length; group++) {
+			tables[group] = open(new File(directory, fileName(groups[group])), groups[group]);
+		}
+	}
+	/**
+	 * Default partition of the blocks: 4-4 for 3x3, 6-6-3 for 4x4 and
+	 * 5-5-5-5-4 for 5x5.
+	 * @param dim dimension of boards
+	 * @return groups of blocks
+	 */
+	public static int[][] partition(int dim) {
+		switch (dim) {
+		case 3:
+			return new int[][] { { 1, 2, 3, 4 }, { 5, 6, 7, 8 } };
+		case 4:
+			return new int[][] { { 1, 5, 6, 9, 10, 13 }, { 7, 8, 11, 12, 14, 15 }, { 2, 3, 4 } };
+		case 5:
+			return new int[][] { { 1, 2, 3, 4, 5 }, { 6, 7, 8, 9, 10 }, { 11, 12, 13, 14, 15 },
+					{ 16, 17, 18, 19, 20 }, { 21, 22, 23, 24 } };
+		default:
+			throw new IllegalArgumentException("No default partition for dimension " + dim);
+		}
+	}
+	/**
+	 * Dimension of boards covered by the databases.
+	 * @return dimension
+	 */
+	public int dimension() {
+		return dim;
+	}
+	/**
+	 * Sum of the moves of each group, a lower bound of the solution.
+	 * @param board board of the same dimension
+	 * @return estimated moves toward goal
+	 */
+	public int estimate(Board board) {
+		if (board.dimension() != dim) {
+			throw new IllegalArgumentException("Board of another dimension");
+		}
+		long[] positions = new long[groups.length];
+		for (int position = 0; position < dim * dim; position++) {
+			int value = board.get(position);
+			if (value == 0) continue;
+			positions[groupOf[value]] |= (long) position << (8 * slotOf[value]);
+		}
+		int sum = 0;
+		for (int group = 0; group < groups.length; group++) {
+			sum += lookup(group, positions[group]);
+		}
+		return sum;
+	}
+	/**
+	 * Only the group of the moved block is looked up again, before and
+	 * after the move. Its blocks are found by a scan of the board.
+	 * @param board board after the move
+	 * @param value estimate of the board before the move
+	 * @param direction move of the empty block
+	 * @return estimated moves toward goal
+	 */
+	public int update(Board board, int value, int direction) {
+		// the block moved from the empty block's position to its neighbor
+		int from = board.blank();
+		int to = board.target(Board.opposite(direction));
+		int moved = board.get(to);
+		int group = groupOf[moved];
+		long positions = 0;
+		for (int position = 0; position < dim * dim; position++) {
+			int block = board.get(position);
+			if (block != 0 && groupOf[block] == group) positions |= (long) position << (8 * slotOf[block]);
+		}
+		int shift = 8 * slotOf[moved];
+		long previous = positions & ~(0xFFL << shift) | (long) from << shift;
+		return value - lookup(group, previous) + lookup(group, positions);
+	}
+	/**
+	 * Moves of a group.
+	 * @param group
+	 * @param positions position of each block of the group, a byte per slot
+	 * @return moves
+	 */
+	private int lookup(int group, long positions) {
+		return tables[group].get(rank(positions, groups[group].length, dim * dim)) & 0xFF;
+	}
+	/**
+	 * Rank of distinct positions among all arrangements of as many blocks,
+	 * the digits of a mixed radix number: each position counts the free
+	 * positions before it.
+	 * @param positions a byte per slot
+	 * @param count number of slots
+	 * @param size number of positions
+	 * @return rank from 0 to size! / (size - count)! - 1
+	 */
+	private static int rank(long positions, int count, int size) {
+		int rank = 0;
+		long used = 0;
+		for (int slot = 0; slot < count; slot++) {
+			int position = (int) (positions >>> (8 * slot)) & 0xFF;
+			int free = position - Long.bitCount(used & ((1L << position) - 1));
+			rank = rank * (size - slot) + free;
+			used |= 1L << position;
+		}
+		return rank;
+	}
+	/**
+	 * Positions of a rank.
+	 * @param rank
+	 * @param count number of slots
+	 * @param size number of positions
+	 * @return a byte per slot
+	 */
+	private static long unrank(int rank, int count, int size) {
+		int[] free = new int[count];
+		for (int slot = count - 1; slot >= 0; slot--) {
+			free[slot] = rank % (size - slot);
+			rank /= size - slot;
+		}
+		long positions = 0;
+		long used = 0;
+		for (int slot = 0; slot < count; slot++) {
+			int position = 0;
+			// the free[slot]-th position not used yet
+			for (int skip = free[slot]; skip > 0 || (used & 1L << position) != 0; position++) {
+				if ((used & 1L << position) == 0) skip--;
+			}
+			positions |= (long) position << (8 * slot);
+			used |= 1L << position;
+		}
+		return positions;
+	}
+	/**
+	 * Number of arrangements of blocks in distinct positions.
+	 * @param size number of positions
+	 * @param count number of blocks
+	 * @return size! / (size - count)!
+	 */
+	private static long permutations(int size, int count) {
+		long n = 1;
+		for (int slot = 0; slot < count; slot++) n *= size - slot;
+		return n;
+	}
+	/**
+	 * Map the table of a group, building the file if it does not exist. The
+	 * table is written to a temporary file renamed once complete, so that
+	 * builders running at the same time never map a partial table.
+	 * @param file table file
+	 * @param tiles blocks of the group
+	 * @return mapped table
+	 * @throws IOException if the table cannot be written or mapped
+	 */
+	private MappedByteBuffer open(File file, int[] tiles) throws IOException {
+		long length = permutations(dim * dim, tiles.length);
+		if (!file.exists() || file.length() != length) {
+			File parent = file.getAbsoluteFile().getParentFile();
+			parent.mkdirs();
+			File temporary = File.createTempFile(file.getName(), ".tmp", parent);
+			boolean moved = false;
+			try {
+				OutputStream out = new FileOutputStream(temporary);
+				try {
+					out.write(build(tiles));
+				} finally {
+					out.close();
+				}
+				Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE,
+						StandardCopyOption.REPLACE_EXISTING);
+				moved = true;
+			} finally {
+				if (!moved) temporary.delete();
+			}
+		}
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			raf.close();
+		}
+	}
+	/**
+	 * Breadth-first search from the goal of a group over the positions of
+	 * its blocks and of the empty block. Moving the empty block over cells
+	 * of other blocks is free, so each state first spreads its distance to
+	 * every position the empty block can reach that way, and moves of the
+	 * group's blocks then open the next layer (a 0-1 breadth-first search).
+	 * Layers are found by scanning the distances rather than by a queue,
+	 * which would hold tens of millions of states.
+	 * @param tiles blocks of the group
+	 * @return fewest moves of each arrangement of the blocks
+	 */
+	private byte[] build(int[] tiles) {
+		int size = dim * dim;
+		int count = tiles.length;
+		int arrangements = (int) permutations(size, count);
+		byte[] distance = new byte[arrangements * size];
+		Arrays.fill(distance, (byte) UNSEEN);
+		int[] stack = new int[size];
+		long goal = 0;
+		for (int slot = 0; slot < count; slot++) {
+			goal |= (long) (tiles[slot] - 1) << (8 * slot);
+		}
+		spread(distance, goal, count, rank(goal, count, size), size - 1, 0, stack);
+		for (int moves = 0; moves < UNSEEN - 1; moves++) {
+			boolean found = false;
+			for (int rank = 0; rank < arrangements; rank++) {
+				long positions = -1;
+				for (int blank = 0; blank < size; blank++) {
+					if ((distance[rank * size + blank] & 0xFF) != moves) continue;
+					if (positions == -1) positions = unrank(rank, count, size);
+					found = true;
+					for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+						int from = step(blank, direction);
+						if (from < 0) continue;
+						int slot = slotAt(positions, count, from);
+						if (slot < 0) continue;
+						// the block slides into the empty block, which takes its place
+						int shift = 8 * slot;
+						long next = positions & ~(0xFFL << shift) | (long) blank << shift;
+						spread(distance, next, count, rank(next, count, size), from, moves + 1, stack);
+					}
+				}
+			}
+			if (!found) break;
+		}
+		byte[] table = new byte[arrangements];
+		for (int rank = 0; rank < arrangements; rank++) {
+			int fewest = UNSEEN;
+			for (int blank = 0; blank < size; blank++) {
+				fewest = Math.min(fewest, distance[rank * size + blank] & 0xFF);
+			}
+			table[rank] = (byte) fewest;
+		}
+		return table;
+	}
+	/**
+	 * Give a distance to a state and to the states of the same arrangement
+	 * whose empty block can be reached without moving the group's blocks.
+	 * @param distance distances of the states
+	 * @param positions positions of the group, a byte per slot
+	 * @param count number of slots
+	 * @param rank rank of the positions
+	 * @param blank position of the empty block
+	 * @param moves distance
+	 * @param stack room for the positions to visit
+	 */
+	private void spread(byte[] distance, long positions, int count, int rank, int blank, int moves, int[] stack) {
+		int size = dim * dim;
+		int base = rank * size;
+		// the positions reachable from a seen state are all seen
+		if ((distance[base + blank] & 0xFF) != UNSEEN) return;
+		long occupied = 0;
+		for (int slot = 0; slot < count; slot++) {
+			occupied |= 1L << ((positions >>> (8 * slot)) & 0xFF);
+		}
+		int top = 0;
+		distance[base + blank] = (byte) moves;
+		stack[top++] = blank;
+		while (top > 0) {
+			int position = stack[--top];
+			for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+				int next = step(position, direction);
+				if (next < 0 || (occupied & 1L << next) != 0 || (distance[base + next] & 0xFF) != UNSEEN) continue;
+				distance[base + next] = (byte) moves;
+				stack[top++] = next;
+			}
+		}
+	}
+	/**
+	 * Position next to another one.
+	 * @param position row-major index
+	 * @param direction one of UP, DOWN, LEFT and RIGHT
+	 * @return neighboring index, -1 if outside the board
+	 */
+	private int step(int position, int direction) {
+		int row = position / dim;
+		int col = position % dim;
+		switch (direction) {
+		case Board.UP:    return row > 0 ? position - dim : -1;
+		case Board.DOWN:  return row < dim - 1 ? position + dim : -1;
+		case Board.LEFT:  return col > 0 ? position - 1 : -1;
+		default:          return col < dim - 1 ? position + 1 : -1;
+		}
+	}
+	/**
+	 * Slot of the block of the group at a position.
+	 * @param positions a byte per slot
+	 * @param count number of slots
+	 * @param position row-major index
+	 * @return slot, -1 if no block of the group is there
+	 */
+	private static int slotAt(long positions, int count, int position) {
+		for (int slot = 0; slot < count; slot++) {
+			if (((positions >>> (8 * slot)) & 0xFF) == position) return slot;
+		}
+		return -1;
+	}
+	/**
+	 * File name of a table.
+	 * @param tiles blocks of the group
+	 * @return name
+	 */
+	private String fileName(int[] tiles) {
+		StringBuilder s = new StringBuilder("pdb-" + dim);
+		for (int value : tiles) {
+			s.append('-').append(value);
+		}
+		return s.append(".bin").toString();
+	}
+	/**
+	 * Build the default databases of a dimension (java PatternDatabase 4 dir).
+	 * @param args
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException {
+		int dim = Integer.parseInt(args[0]);
+		File directory = new File(args.length > 1 ? args[1] : ".");
+		Stopwatch stopwatch = new Stopwatch();
+		new PatternDatabase(dim, directory);
+		StdOut.println("Pattern databases ready in " + stopwatch.elapsedTime() + " seconds");
+	}
+}
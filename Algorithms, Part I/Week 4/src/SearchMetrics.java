@@ -0,0 +1,192 @@
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of a search, cheap enough to be always collected.
+ * <p>
+ * Counters are plain fields written by the searching thread only, so
+ * values read from another thread (by JMX for instance) while a search runs
+ * are approximate. The heuristic is timed on one evaluation out of
+ * SAMPLE_INTERVAL and the total is extrapolated from the samples. Counters
+ * start over with each search, so metrics reused across searches report
+ * the current or last one.
+ * </p>
+ * @author etlove
+ */
+public class SearchMetrics implements SearchMetricsMBean {
+	/**
+	 * Expanded nodes between two progress reports, a power of two.
+	 */
+	public static final int REPORT_INTERVAL = 1 << 16;
+	/**
+	 * Evaluations of the heuristic between two timed ones, a power of two.
+	 */
+	static final int SAMPLE_INTERVAL = 64;
+	/**
+	 * Cost of reading the clock, removed from each timed evaluation
+	 */
+	private static final long TIMER_NANOS = timer();
+	/**
+	 * Nodes expanded
+	 */
+	long expanded;
+	/**
+	 * Child nodes generated
+	 */
+	long generated;
+	/**
+	 * Nodes pruned as already expanded
+	 */
+	long duplicates;
+	/**
+	 * Largest frontier, of both sides together in a bidirectional search
+	 */
+	long peakFrontier;
+	/**
+	 * Evaluations of the heuristic, and how many of them were timed
+	 */
+	private long evaluations, samples;
+	/**
+	 * Nanoseconds of the sampled heuristic evaluations
+	 */
+	private long sampledNanos;
+	/**
+	 * Start and end of the search, 0 if not started or not over
+	 */
+	private long start, end;
+	/**
+	 * Name under which the metrics are registered, null if not
+	 */
+	private ObjectName name;
+	/**
+	 * Mark the start of the search, clearing the counters.
+	 */
+	void start() {
+		expanded = 0;
+		generated = 0;
+		duplicates = 0;
+		peakFrontier = 0;
+		evaluations = 0;
+		samples = 0;
+		sampledNanos = 0;
+		start = System.nanoTime();
+		end = 0;
+	}
+	/**
+	 * Mark the end of the search.
+	 */
+	void finish() {
+		end = System.nanoTime();
+	}
+	/**
+	 * Count an evaluation of the heuristic, should it be timed?
+	 * @return true once every SAMPLE_INTERVAL evaluations
+	 */
+	boolean sampled() {
+		return (evaluations++ & (SAMPLE_INTERVAL - 1)) == 0;
+	}
+	/**
+	 * Record a timed evaluation of the heuristic.
+	 * @param nanos
+	 */
+	void sample(long nanos) {
+		samples++;
+		if (nanos > TIMER_NANOS) sampledNanos += nanos - TIMER_NANOS;
+	}
+	/**
+	 * Record a frontier size.
+	 * @param size
+	 */
+	void frontier(long size) {
+		if (size > peakFrontier) peakFrontier = size;
+	}
+	/**
+	 * Add the counters of a search run alongside this one. Both searches
+	 * record the peak of their frontiers together, the larger is kept.
+	 * @param other
+	 */
+	void add(SearchMetrics other) {
+		expanded += other.expanded;
+		generated += other.generated;
+		duplicates += other.duplicates;
+		peakFrontier = Math.max(peakFrontier, other.peakFrontier);
+		evaluations += other.evaluations;
+		samples += other.samples;
+		sampledNanos += other.sampledNanos;
+	}
+	public long getExpanded() {
+		return expanded;
+	}
+	public long getGenerated() {
+		return generated;
+	}
+	public long getDuplicates() {
+		return duplicates;
+	}
+	public long getPeakFrontier() {
+		return peakFrontier;
+	}
+	public long getHeuristicMillis() {
+		if (samples == 0) return 0;
+		return (long) ((double) sampledNanos * evaluations / samples / 1000000);
+	}
+	public long getElapsedMillis() {
+		return nanos() / 1000000;
+	}
+	public double getNodesPerSecond() {
+		long nanos = nanos();
+		return nanos == 0 ? 0 : expanded * 1e9 / nanos;
+	}
+	/**
+	 * Nanoseconds since the start, up to the end once over.
+	 * @return elapsed time
+	 */
+	private long nanos() {
+		if (start == 0) return 0;
+		return (end != 0 ? end : System.nanoTime()) - start;
+	}
+	/**
+	 * Least time between two readings of the clock.
+	 * @return nanoseconds
+	 */
+	private static long timer() {
+		long least = Long.MAX_VALUE;
+		for (int i = 0; i < 10000; i++) {
+			long start = System.nanoTime();
+			long nanos = System.nanoTime() - start;
+			if (nanos < least) least = nanos;
+		}
+		return least;
+	}
+	/**
+	 * Register these metrics with the platform MBean server as
+	 * Solver:type=SearchMetrics,name=NAME.
+	 * @param name
+	 * @throws JMException if the name is invalid or already taken
+	 */
+	public void register(String name) throws JMException {
+		ObjectName objectName = new ObjectName("Solver:type=SearchMetrics,name=" + ObjectName.quote(name));
+		ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+		this.name = objectName;
+	}
+	/**
+	 * Remove these metrics from the platform MBean server.
+	 * @throws JMException
+	 */
+	public void unregister() throws JMException {
+		if (name == null) return;
+		ManagementFactory.getPlatformMBeanServer().unregisterMBean(name);
+		name = null;
+	}
+	/**
+	 * String representation of the metrics.
+	 * @return one line of counters
+	 */
+	public String toString() {
+		return "expanded=" + expanded + " generated=" + generated + " duplicates=" + duplicates
+				+ " peakFrontier=" + peakFrontier + " heuristicMs=" + getHeuristicMillis()
+				+ " elapsedMs=" + getElapsedMillis() + " nodesPerSecond=" + (long) getNodesPerSecond();
+	}
+}
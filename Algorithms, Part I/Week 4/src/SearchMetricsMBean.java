@@ -0,0 +1,35 @@
+/**
+ * Management interface of SearchMetrics.
+ * @author etlove
+ */
+public interface SearchMetricsMBean {
+	/**
+	 * @return nodes expanded
+	 */
+	long getExpanded();
+	/**
+	 * @return child nodes generated
+	 */
+	long getGenerated();
+	/**
+	 * @return nodes pruned because their board was already expanded
+	 */
+	long getDuplicates();
+	/**
+	 * @return largest frontier seen, of both sides of a bidirectional search,
+	 *         the deepest path for IDA*
+	 */
+	long getPeakFrontier();
+	/**
+	 * @return estimated milliseconds spent in the heuristic
+	 */
+	long getHeuristicMillis();
+	/**
+	 * @return milliseconds since the search started
+	 */
+	long getElapsedMillis();
+	/**
+	 * @return nodes expanded per second
+	 */
+	double getNodesPerSecond();
+}
@@ -1,3 +1,14 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.management.JMException;
+
 /**
  * Coursera Programming Assignment<br/>
  * Algorithm Part 1 - Week 4.
@@ -7,18 +18,301 @@
  */
 public class Solver {
 	/**
-	 * Result Node
+	 * Search algorithms.
+	 */
+	public enum Algorithm {
+		/**
+		 * A* search, keeps every generated board in the frontier.
+		 */
+		ASTAR,
+		/**
+		 * Iterative deepening A*, memory linear in the solution depth.
+		 */
+		IDASTAR,
+		/**
+		 * A* from the initial board and from the goal board on two threads,
+		 * meeting in the middle.
+		 */
+		BIDIRECTIONAL,
+		/**
+		 * Anytime repairing A*, a first solution found with an inflated
+		 * heuristic is improved until optimal or out of time.
+		 */
+		ANYTIME
+	}
+	/**
+	 * Options of a search, each setter returns the options for chaining.
+	 */
+	public static class Options {
+		/**
+		 * Search algorithm
+		 */
+		private Algorithm algorithm = Algorithm.ASTAR;
+		/**
+		 * Estimate of the moves left
+		 */
+		private Heuristic heuristic = Heuristic.MANHATTAN;
+		/**
+		 * Bytes the search nodes may take
+		 */
+		private long memoryLimit = Long.MAX_VALUE;
+		/**
+		 * Bytes the A* frontier may take in memory
+		 */
+		private long frontierBudget = Long.MAX_VALUE;
+		/**
+		 * Counters of the search
+		 */
+		private SearchMetrics metrics;
+		/**
+		 * Observer of the search
+		 */
+		private SolverListener listener;
+		/**
+		 * Initial inflation of the heuristic of the anytime search
+		 */
+		private double weight = 3;
+		/**
+		 * Milliseconds the anytime search may improve its solution
+		 */
+		private long timeBudget = Long.MAX_VALUE;
+		/**
+		 * 
+		 * @param algorithm search algorithm, A* by default
+		 * @return options
+		 */
+		public Options algorithm(Algorithm algorithm) {
+			this.algorithm = algorithm;
+			return this;
+		}
+		/**
+		 * 
+		 * @param heuristic admissible estimate, Manhattan distance by default
+		 * @return options
+		 */
+		public Options heuristic(Heuristic heuristic) {
+			this.heuristic = heuristic;
+			return this;
+		}
+		/**
+		 * Abandon A* searches whose nodes would take more memory, estimated
+		 * from the nodes held and the size of their boards. IDA* needs no
+		 * limit.
+		 * @param bytes memory limit, unlimited by default
+		 * @return options
+		 */
+		public Options memoryLimit(long bytes) {
+			this.memoryLimit = bytes;
+			return this;
+		}
+		/**
+		 * Spill the highest priorities of the A* frontier to temporary files
+		 * once it would take more memory, estimated like the memory limit.
+		 * Spilled nodes do not count toward the memory limit.
+		 * @param bytes frontier budget, unlimited by default
+		 * @return options
+		 */
+		public Options frontierBudget(long bytes) {
+			this.frontierBudget = bytes;
+			return this;
+		}
+		/**
+		 * Collect the counters of the search into existing metrics, for
+		 * instance registered with JMX before solving.
+		 * @param metrics fresh metrics by default
+		 * @return options
+		 */
+		public Options metrics(SearchMetrics metrics) {
+			this.metrics = metrics;
+			return this;
+		}
+		/**
+		 * 
+		 * @param listener observer of the search, none by default
+		 * @return options
+		 */
+		public Options listener(SolverListener listener) {
+			this.listener = listener;
+			return this;
+		}
+		/**
+		 * Inflate the heuristic of the anytime search, its first solution is
+		 * at most weight times longer than optimal. Rounded up to a tenth.
+		 * @param weight at least 1, 3 by default
+		 * @return options
+		 */
+		public Options weight(double weight) {
+			if (!(weight >= 1)) throw new IllegalArgumentException("Weight below 1: " + weight);
+			this.weight = weight;
+			return this;
+		}
+		/**
+		 * Stop improving the solution of the anytime search after some time.
+		 * The search always runs until its first solution.
+		 * @param millis time budget, unlimited by default
+		 * @return options
+		 */
+		public Options timeBudget(long millis) {
+			this.timeBudget = millis;
+			return this;
+		}
+	}
+	/**
+	 * Thrown when a search would hold more nodes than its memory limit.
+	 * @author etlove
+	 */
+	public static class MemoryLimitException extends IllegalStateException {
+		private static final long serialVersionUID = 1L;
+		/**
+		 * 
+		 * @param message
+		 */
+		public MemoryLimitException(String message) {
+			super(message);
+		}
+	}
+	/**
+	 * Estimated bytes of a frontier node besides its board, with its slot
+	 * in the queue.
 	 */
-	private BoardNode result;
+	private static final int NODE_BYTES = 48;
+	/**
+	 * Estimated bytes of an expanded node: its parent link and its entry in
+	 * the closed map.
+	 */
+	private static final int CLOSED_BYTES = 40;
+	/**
+	 * Estimated bytes of an expanded node of the bidirectional search,
+	 * whose closed map boxes keys and values.
+	 */
+	private static final int SHARED_BYTES = 128;
+	/**
+	 * Marker returned by the depth-first search once the goal is reached.
+	 */
+	private static final int FOUND = -1;
+	/**
+	 * Weights of the anytime search are counted in tenths, so that
+	 * priorities stay integers.
+	 */
+	private static final int WEIGHT_SCALE = 10;
+	/**
+	 * Estimate of the moves left
+	 */
+	private Heuristic heuristic;
+	/**
+	 * Bytes the A* searches may keep in frontier and closed set together
+	 */
+	private long memoryLimit;
+	/**
+	 * Estimated bytes of a frontier node and its board
+	 */
+	private long frontierBytes;
+	/**
+	 * Frontier nodes the A* search keeps in memory
+	 */
+	private int frontierLimit;
+	/**
+	 * Initial board
+	 */
+	private Board initial;
+	/**
+	 * Moves of the empty block in a shortest solution, null if none
+	 */
+	private int[] result;
+	/**
+	 * Moves of the empty block on the current depth-first path.
+	 */
+	private int[] path;
+	/**
+	 * Length of the shortest path found by the bidirectional search.
+	 */
+	private volatile int shortest;
+	/**
+	 * Is the bidirectional search over?
+	 */
+	private volatile boolean stopped;
+	/**
+	 * Forward and backward slots of the shortest path found, ROOT for the
+	 * root of that side.
+	 */
+	private int forwardMeet, backwardMeet;
+	/**
+	 * Counters of the search
+	 */
+	private SearchMetrics metrics;
+	/**
+	 * Observer of the search, null if none
+	 */
+	private SolverListener listener;
+	/**
+	 * Proven ratio between the length of the solution and the optimal one
+	 */
+	private double bound = 1;
 	/**
 	 * Find a solution to the initial board (using the A* algorithm).
 	 * @param initial
 	 */
 	public Solver(Board initial) {
-		if (initial.isGoal()) {
-			result = new BoardNode(initial, null);
-		} else {
-			result = solve(initial);
+		this(initial, Algorithm.ASTAR);
+	}
+	/**
+	 * Find a solution to the initial board using the given algorithm.
+	 * @param initial
+	 * @param algorithm
+	 */
+	public Solver(Board initial, Algorithm algorithm) {
+		this(initial, algorithm, Heuristic.MANHATTAN);
+	}
+	/**
+	 * Find a solution to the initial board using the given algorithm and
+	 * heuristic.
+	 * @param initial
+	 * @param algorithm
+	 * @param heuristic admissible estimate of the moves left
+	 */
+	public Solver(Board initial, Algorithm algorithm, Heuristic heuristic) {
+		this(initial, new Options().algorithm(algorithm).heuristic(heuristic));
+	}
+	/**
+	 * Find a solution to the initial board with the given options.
+	 * @param initial
+	 * @param options
+	 * @throws MemoryLimitException if the search exceeds the memory limit
+	 */
+	public Solver(Board initial, Options options) {
+		Algorithm algorithm = options.algorithm;
+		this.heuristic = options.heuristic;
+		this.memoryLimit = options.memoryLimit;
+		this.frontierBytes = NODE_BYTES + Board.footprint(initial.dimension());
+		this.frontierLimit = (int) Math.min(Integer.MAX_VALUE, options.frontierBudget / frontierBytes);
+		this.initial = initial;
+		this.metrics = options.metrics != null ? options.metrics : new SearchMetrics();
+		this.listener = options.listener;
+		// cross-check the parity test against the twin race (java -ea)
+		assert initial.isSolvable() == (race(initial) != null);
+		metrics.start();
+		try {
+			// reject unsolvable boards before searching
+			if (!initial.isSolvable()) return;
+			if (initial.isGoal()) {
+				result = new int[0];
+			} else if (algorithm == Algorithm.IDASTAR) {
+				result = deepen(initial);
+			} else if (algorithm == Algorithm.BIDIRECTIONAL) {
+				result = meet(initial);
+			} else if (algorithm == Algorithm.ANYTIME) {
+				int weight = (int) Math.ceil(options.weight * WEIGHT_SCALE - 1e-9);
+				long deadline = Long.MAX_VALUE;
+				if (options.timeBudget < Long.MAX_VALUE / 1000000) {
+					deadline = System.nanoTime() + options.timeBudget * 1000000;
+				}
+				result = improve(initial, weight, deadline);
+			} else {
+				result = solve(initial);
+			}
+		} finally {
+			metrics.finish();
+			if (listener != null) listener.finished(metrics);
 		}
 	}
 	/**
@@ -34,65 +328,626 @@ public class Solver {
 	 */
 	public int moves() {
 		if (result != null) {
-			return result.moves;
+			return result.length;
 		} else {
 			return -1;
 		}
 	}
 	/**
-	 * Sequence of boards in a shortest solution; null if no solution.
+	 * Proven bound on the ratio between moves() and the optimal number of
+	 * moves: 1 if the solution is optimal, as with every algorithm but
+	 * ANYTIME, or if there is no solution.
+	 * @return suboptimality bound
+	 */
+	public double suboptimalityBound() {
+		return bound;
+	}
+	/**
+	 * Counters of the search.
+	 * @return metrics
+	 */
+	public SearchMetrics metrics() {
+		return metrics;
+	}
+	/**
+	 * Sequence of boards in a shortest solution; null if no solution. The
+	 * boards are replayed from the initial board as they are iterated.
 	 * @return solution
 	 */
 	public Iterable<Board> solution() {
 		if (result == null) return null;
-		// Create the iterator
-		Stack<Board> stack = new Stack<Board>();
-		BoardNode node = result;
-		do {
-			stack.push(node.board);
-		} while ((node = node.parent) != null);
-		return stack;
+		return new Iterable<Board>() {
+			public Iterator<Board> iterator() {
+				return new Replay();
+			}
+		};
+	}
+	/**
+	 * Iterator replaying the moves of the solution.
+	 * @author etlove
+	 */
+	private class Replay implements Iterator<Board> {
+		/**
+		 * Board last returned
+		 */
+		private Board board;
+		/**
+		 * Index of the next move
+		 */
+		private int step = -1;
+		@Override
+		public boolean hasNext() {
+			return step < result.length;
+		}
+		@Override
+		public Board next() {
+			if (!hasNext()) throw new NoSuchElementException();
+			board = (step < 0) ? initial : board.slide(result[step]);
+			step++;
+			return board;
+		}
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
 	}
 	/**
-	 * Attempt to solve the puzzle.
+	 * Solve a solvable puzzle.
 	 * @param board
-	 * @param twin
-	 * @return result
-	 */
-	private BoardNode solve(Board board) {
-		MinPQ<BoardNode> mQueue = new MinPQ<BoardNode>();
-		MinPQ<BoardNode> tQueue = new MinPQ<BoardNode>();
-		mQueue.insert(new BoardNode(board, null));
-		tQueue.insert(new BoardNode(board.twin(), null));
+	 * @return moves of the solution
+	 */
+	private int[] solve(Board board) {
+		BucketQueue<BoardNode> queue = new BucketQueue<BoardNode>(new NodeCodec(board.dimension()), frontierLimit);
+		LongIntMap closed = new LongIntMap();
+		MoveArena arena = new MoveArena();
+		BoardNode root = new BoardNode(board);
+		queue.insert(root.priority, root);
+		try {
+			while (true) {
+				BoardNode goal = move(queue, closed, arena, metrics);
+				if (goal != null && goal.board.isGoal()) return arena.path(goal.slot);
+			}
+		} finally {
+			// the search may also end by running out of room
+			queue.close();
+		}
+	}
+	/**
+	 * Attempt to solve the puzzle and its twin in lockstep, only one of them
+	 * is solvable.
+	 * @param board
+	 * @return moves of the solution, null if the twin is solved first
+	 */
+	private int[] race(Board board) {
+		BucketQueue<BoardNode> mQueue = new BucketQueue<BoardNode>();
+		BucketQueue<BoardNode> tQueue = new BucketQueue<BoardNode>();
+		LongIntMap mClosed = new LongIntMap();
+		LongIntMap tClosed = new LongIntMap();
+		MoveArena mArena = new MoveArena();
+		MoveArena tArena = new MoveArena();
+		BoardNode mRoot = new BoardNode(board);
+		BoardNode tRoot = new BoardNode(board.twin());
+		mQueue.insert(mRoot.priority, mRoot);
+		tQueue.insert(tRoot.priority, tRoot);
 		// Try to find the goal of board itself and it's twin
 		BoardNode mGoal = null;
 		BoardNode tGoal = null;
+		// counters of the cross-check are not reported
+		SearchMetrics mMetrics = new SearchMetrics();
+		SearchMetrics tMetrics = new SearchMetrics();
 		while (true) {
-			mGoal = move(mQueue);
-			tGoal = move(tQueue);
-			if (mGoal.board.isGoal()) return mGoal;
-			if (tGoal.board.isGoal()) return null;
+			mGoal = move(mQueue, mClosed, mArena, mMetrics);
+			tGoal = move(tQueue, tClosed, tArena, tMetrics);
+			if (mGoal != null && mGoal.board.isGoal()) return mArena.path(mGoal.slot);
+			if (tGoal != null && tGoal.board.isGoal()) return null;
 		}
 	}
 	/**
-	 * Implementation of A* algorithm.
+	 * Implementation of A* algorithm. With a consistent heuristic a board is
+	 * reached first by a shortest path, so expanded boards are kept in a
+	 * closed set and never expanded again. The pattern databases are only
+	 * admissible, so a board reached later by fewer moves is expanded again.
 	 * @param queue
-	 * @return
+	 * @param closed moves of expanded boards by key
+	 * @param arena parent links of expanded nodes
+	 * @param metrics counters of the search
+	 * @return expanded node, null if its board was already expanded
 	 */
-	private BoardNode move(MinPQ<BoardNode> queue) {
+	private BoardNode move(BucketQueue<BoardNode> queue, LongIntMap closed, MoveArena arena,
+			SearchMetrics metrics) {
 		BoardNode node = queue.delMin();
-		for (Board neighbor : node.board.neighbors()) {
-			if (node.parent == null || !neighbor.equals(node.parent.board)) {
-				queue.insert(new BoardNode(neighbor, node));
+		long key = node.board.key();
+		if (node.moves >= closed.get(key, Integer.MAX_VALUE)) {
+			metrics.duplicates++;
+			return null;
+		}
+		closed.put(key, node.moves);
+		checkLimit(queue.resident() * frontierBytes + closed.size() * (long) CLOSED_BYTES, memoryLimit);
+		node.slot = arena.add(node.parent, node.direction);
+		expanded(metrics, queue.size());
+		for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+			// skip the move leading back to the parent board
+			if (node.parent != MoveArena.ROOT && direction == Board.opposite(node.direction)) continue;
+			if (!node.board.canMove(direction)) continue;
+			Board neighbor = node.board.slide(direction);
+			metrics.generated++;
+			if (node.moves + 1 < closed.get(neighbor.key(), Integer.MAX_VALUE)) {
+				BoardNode child = new BoardNode(node, direction, neighbor, heuristic, metrics);
+				queue.insert(child.priority, child);
+			} else {
+				metrics.duplicates++;
 			}
 		}
 		return node;
 	}
+	/**
+	 * Count an expanded node, and report progress at intervals.
+	 * @param metrics counters of the search
+	 * @param frontier size of the frontier
+	 */
+	private void expanded(SearchMetrics metrics, long frontier) {
+		metrics.expanded++;
+		metrics.frontier(frontier);
+		if (listener != null && metrics == this.metrics
+				&& (metrics.expanded & (SearchMetrics.REPORT_INTERVAL - 1)) == 0) {
+			listener.progress(metrics);
+		}
+	}
+	/**
+	 * Estimate a child board, timing the heuristic once in a while.
+	 * @param estimator
+	 * @param board board after the move
+	 * @param value estimate of the board before the move
+	 * @param direction move of the empty block
+	 * @param metrics counters of the search
+	 * @return estimated moves toward goal
+	 */
+	private static int update(Heuristic estimator, Board board, int value, int direction, SearchMetrics metrics) {
+		if (!metrics.sampled()) return estimator.update(board, value, direction);
+		long start = System.nanoTime();
+		int distance = estimator.update(board, value, direction);
+		metrics.sample(System.nanoTime() - start);
+		return distance;
+	}
+	/**
+	 * Abandon the search once its nodes would take too much memory.
+	 * @param bytes estimated bytes of the nodes held
+	 * @param limit
+	 */
+	private static void checkLimit(long bytes, long limit) {
+		if (bytes > limit) {
+			throw new MemoryLimitException("Search exceeded the memory limit of " + limit + " bytes");
+		}
+	}
+	/**
+	 * Implementation of anytime repairing A* (ARA*). Priorities inflate the
+	 * heuristic by the weight, so a first solution comes quickly. Then the
+	 * weight is lowered and the search goes on from its frontier, along with
+	 * the expanded boards since reached by fewer moves, until no node may
+	 * lead to a shorter solution or the time is up. Nodes which cannot beat
+	 * the best solution are pruned.
+	 * @param board
+	 * @param weight initial weight in tenths
+	 * @param deadline System.nanoTime() to stop improving at
+	 * @return moves of the best solution found
+	 */
+	private int[] improve(Board board, int weight, long deadline) {
+		BucketQueue<BoardNode> open = new BucketQueue<BoardNode>();
+		// fewest moves known to reach each board
+		LongIntMap best = new LongIntMap();
+		// boards expanded at the current weight
+		LongHashSet closed = new LongHashSet();
+		// nodes improved after their board was expanded at the current weight
+		Queue<BoardNode> inconsistent = new Queue<BoardNode>();
+		MoveArena arena = new MoveArena();
+		BoardNode root = new BoardNode(board);
+		best.put(board.key(), 0);
+		open.insert(weighted(root, weight), root);
+		bound = Double.POSITIVE_INFINITY;
+		int[] moves = null;
+		// moves of the best solution, kept clear of overflows once scaled
+		int cost = Integer.MAX_VALUE / WEIGHT_SCALE;
+		boolean expired = false;
+		while (true) {
+			while (!open.isEmpty() && open.minPriority() < cost * WEIGHT_SCALE) {
+				// check the clock once in a while, only after a first solution
+				if (moves != null && (metrics.expanded & 1023) == 0 && System.nanoTime() > deadline) {
+					expired = true;
+					break;
+				}
+				BoardNode node = open.delMin();
+				long key = node.board.key();
+				if (node.moves > best.get(key, Integer.MAX_VALUE) || !closed.add(key)) {
+					metrics.duplicates++;
+					continue;
+				}
+				checkLimit(open.size() * frontierBytes + best.size() * (long) CLOSED_BYTES, memoryLimit);
+				node.slot = arena.add(node.parent, node.direction);
+				expanded(metrics, open.size());
+				// only the goal board is estimated at 0
+				if (node.distance == 0) {
+					cost = node.moves;
+					moves = arena.path(node.slot);
+					continue;
+				}
+				for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+					// skip the move leading back to the parent board
+					if (node.parent != MoveArena.ROOT && direction == Board.opposite(node.direction)) continue;
+					if (!node.board.canMove(direction)) continue;
+					Board neighbor = node.board.slide(direction);
+					metrics.generated++;
+					long next = neighbor.key();
+					if (node.moves + 1 >= best.get(next, Integer.MAX_VALUE)) {
+						metrics.duplicates++;
+						continue;
+					}
+					best.put(next, node.moves + 1);
+					BoardNode child = new BoardNode(node, direction, neighbor, heuristic, metrics);
+					if (child.priority >= cost) continue;
+					if (closed.contains(next)) inconsistent.enqueue(child);
+					else open.insert(weighted(child, weight), child);
+				}
+			}
+			// no shorter solution goes through a node left out of both
+			Queue<BoardNode> nodes = inconsistent;
+			while (!open.isEmpty()) nodes.enqueue(open.delMin());
+			int lower = cost;
+			for (BoardNode node : nodes) lower = Math.min(lower, node.priority);
+			double ratio = (double) cost / lower;
+			if (expired) {
+				// the weight only bounds the solution of a finished pass
+				if (ratio < bound) bound = ratio;
+				return moves;
+			}
+			bound = Math.min((double) weight / WEIGHT_SCALE, ratio);
+			if (lower >= cost) return moves;
+			weight = Math.max(WEIGHT_SCALE, Math.min(weight - WEIGHT_SCALE / 2,
+					(int) Math.floor(bound * WEIGHT_SCALE)));
+			for (BoardNode node : nodes) {
+				if (node.priority < cost && node.moves == best.get(node.board.key(), Integer.MAX_VALUE)) {
+					open.insert(weighted(node, weight), node);
+				}
+			}
+			inconsistent = new Queue<BoardNode>();
+			closed.clear();
+		}
+	}
+	/**
+	 * Priority of a node in the anytime search.
+	 * @param node
+	 * @param weight in tenths
+	 * @return moves and inflated estimate, in tenths
+	 */
+	private static int weighted(BoardNode node, int weight) {
+		return node.moves * WEIGHT_SCALE + node.distance * weight;
+	}
+	/**
+	 * Implementation of IDA* algorithm, a single board is moved in place.
+	 * @param initial
+	 * @return moves of the solution
+	 */
+	private int[] deepen(Board initial) {
+		Board board = initial.copy();
+		int distance = heuristic.estimate(board);
+		int bound = distance;
+		while (true) {
+			path = new int[bound + 1];
+			int next = search(board, 0, distance, bound);
+			if (next == FOUND) return Arrays.copyOf(path, bound);
+			bound = next;
+		}
+	}
+	/**
+	 * Depth-first search bounded by the priority.
+	 * @param board board moved in place and restored before return
+	 * @param moves moves from the initial board
+	 * @param distance estimated moves left of the board
+	 * @param bound maximum priority to explore
+	 * @return FOUND if solved else the least priority over the bound
+	 */
+	private int search(Board board, int moves, int distance, int bound) {
+		int priority = moves + distance;
+		if (priority > bound) return priority;
+		if (distance == 0) return FOUND;
+		// the frontier of a depth-first search is its path
+		expanded(metrics, moves + 1);
+		int min = Integer.MAX_VALUE;
+		for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+			// skip the move leading back to the parent board
+			if (moves > 0 && direction == Board.opposite(path[moves - 1])) continue;
+			if (!board.canMove(direction)) continue;
+			board.move(direction);
+			metrics.generated++;
+			int child = update(heuristic, board, distance, direction, metrics);
+			path[moves] = direction;
+			int next = search(board, moves + 1, child, bound);
+			board.move(Board.opposite(direction));
+			if (next == FOUND) return FOUND;
+			if (next < min) min = next;
+		}
+		return min;
+	}
+	/**
+	 * Implementation of bidirectional A* algorithm. The backward search is
+	 * guided by the Manhattan distance to the initial board. A side stops
+	 * once its lowest priority reaches the shortest path found, which is
+	 * then optimal as both heuristics are admissible and a board reached
+	 * again by fewer moves is expanded again.
+	 * @param initial
+	 * @return moves of the solution
+	 */
+	private int[] meet(Board initial) {
+		Board goal = Board.goal(initial.dimension());
+		shortest = Integer.MAX_VALUE;
+		HalfSearch forward = new HalfSearch(initial, goal, heuristic, metrics, true);
+		HalfSearch backward = new HalfSearch(goal, initial, new TargetDistance(initial), new SearchMetrics(), false);
+		forward.other = backward;
+		backward.other = forward;
+		Thread thread = new Thread(backward, "Solver-backward");
+		thread.start();
+		forward.run();
+		try {
+			thread.join();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while solving", e);
+		}
+		metrics.add(backward.metrics);
+		rethrow(forward.failure);
+		rethrow(backward.failure);
+		// Extend the forward path with the backward one, reversed
+		int[] head = forward.arena.path(forwardMeet);
+		int[] tail = backward.arena.path(backwardMeet);
+		int[] moves = Arrays.copyOf(head, head.length + tail.length);
+		for (int i = 0; i < tail.length; i++) {
+			moves[head.length + i] = Board.opposite(tail[tail.length - 1 - i]);
+		}
+		return moves;
+	}
+	/**
+	 * Throw the error which ended a side of the bidirectional search.
+	 * @param failure null if none
+	 */
+	private static void rethrow(Throwable failure) {
+		if (failure instanceof RuntimeException) throw (RuntimeException) failure;
+		if (failure instanceof Error) throw (Error) failure;
+	}
+	/**
+	 * Record a path through both searches if it is shorter.
+	 * @param forward slot of the forward node, ROOT for the initial board
+	 * @param backward slot of the backward node, ROOT for the goal board
+	 * @param length moves of the path
+	 */
+	private synchronized void found(int forward, int backward, int length) {
+		if (length < shortest) {
+			shortest = length;
+			forwardMeet = forward;
+			backwardMeet = backward;
+		}
+	}
+	/**
+	 * One side of the bidirectional search, its closed boards are shared
+	 * with the other side.
+	 * @author etlove
+	 */
+	private class HalfSearch implements Runnable {
+		/**
+		 * Frontier
+		 */
+		private final BucketQueue<BoardNode> queue = new BucketQueue<BoardNode>();
+		/**
+		 * Moves << 32 | slot of expanded nodes by board key, read by the
+		 * other side, whose arena is only read once both sides are done
+		 */
+		private final Map<Long, Long> closed = new ConcurrentHashMap<Long, Long>();
+		/**
+		 * Parent links of expanded nodes
+		 */
+		private final MoveArena arena = new MoveArena();
+		/**
+		 * Estimate of the moves left toward target
+		 */
+		private final Heuristic estimator;
+		/**
+		 * Counters of this side, the forward side reports progress
+		 */
+		private final SearchMetrics metrics;
+		/**
+		 * Board searched for
+		 */
+		private final Board target;
+		/**
+		 * Is it the search from the initial board?
+		 */
+		private final boolean forward;
+		/**
+		 * Search from the opposite side
+		 */
+		private HalfSearch other;
+		/**
+		 * Size of the frontier, read by the other side for the peak of both
+		 */
+		private volatile int frontier;
+		/**
+		 * Error which ended this side, out of memory included
+		 */
+		private Throwable failure;
+		/**
+		 * 
+		 * @param source
+		 * @param target
+		 * @param estimator
+		 * @param metrics
+		 * @param forward
+		 */
+		private HalfSearch(Board source, Board target, Heuristic estimator, SearchMetrics metrics,
+				boolean forward) {
+			this.target = target;
+			this.estimator = estimator;
+			this.metrics = metrics;
+			this.forward = forward;
+			BoardNode root = new BoardNode(source, estimator);
+			queue.insert(root.priority, root);
+		}
+		@Override
+		public void run() {
+			try {
+				while (!stopped && !queue.isEmpty() && queue.minPriority() < shortest) {
+					expand(queue.delMin());
+				}
+			} catch (RuntimeException e) {
+				failure = e;
+			} catch (Error e) {
+				failure = e;
+			} finally {
+				stopped = true;
+			}
+		}
+		/**
+		 * Expand a node unless already expanded, and look for it on the
+		 * other side.
+		 * @param node
+		 */
+		private void expand(BoardNode node) {
+			long key = node.board.key();
+			if (node.moves >= moves(closed.get(key))) {
+				metrics.duplicates++;
+				return;
+			}
+			int slot = arena.add(node.parent, node.direction);
+			node.slot = slot;
+			closed.put(key, (long) node.moves << 32 | slot);
+			// each side gets half of the limit
+			checkLimit(queue.size() * frontierBytes + closed.size() * (long) SHARED_BYTES, memoryLimit / 2);
+			frontier = queue.size();
+			expanded(metrics, frontier + other.frontier);
+			Long match = other.closed.get(key);
+			if (match != null) {
+				int length = node.moves + moves(match);
+				int meet = (int) (long) match;
+				if (forward) found(slot, meet, length);
+				else found(meet, slot, length);
+			} else if (node.board.equals(target)) {
+				if (forward) found(slot, MoveArena.ROOT, node.moves);
+				else found(MoveArena.ROOT, slot, node.moves);
+			}
+			for (int direction = Board.UP; direction <= Board.RIGHT; direction++) {
+				// skip the move leading back to the parent board
+				if (node.parent != MoveArena.ROOT && direction == Board.opposite(node.direction)) continue;
+				if (!node.board.canMove(direction)) continue;
+				Board neighbor = node.board.slide(direction);
+				metrics.generated++;
+				if (node.moves + 1 < moves(closed.get(neighbor.key()))) {
+					BoardNode child = new BoardNode(node, direction, neighbor, estimator, metrics);
+					queue.insert(child.priority, child);
+				} else {
+					metrics.duplicates++;
+				}
+			}
+		}
+	}
+	/**
+	 * Moves of an expanded node of the bidirectional search.
+	 * @param value moves << 32 | slot, null if not expanded
+	 * @return moves, Integer.MAX_VALUE if null
+	 */
+	private static int moves(Long value) {
+		return value == null ? Integer.MAX_VALUE : (int) (value >>> 32);
+	}
+	/**
+	 * Manhattan distance toward an arbitrary board.
+	 * @author etlove
+	 */
+	private static class TargetDistance implements Heuristic {
+		/**
+		 * Dimension
+		 */
+		private final int dim;
+		/**
+		 * Index of each block in the target board
+		 */
+		private final int[] position;
+		/**
+		 * 
+		 * @param target
+		 */
+		private TargetDistance(Board target) {
+			dim = target.dimension();
+			position = new int[dim * dim];
+			for (int index = 0; index < dim * dim; index++) {
+				position[target.get(index)] = index;
+			}
+		}
+		public int estimate(Board board) {
+			int sum = 0;
+			for (int index = 0; index < dim * dim; index++) {
+				int block = board.get(index);
+				if (block != 0) sum += distance(block, index);
+			}
+			return sum;
+		}
+		public int update(Board board, int value, int direction) {
+			// the block moved from the empty block's position to its neighbor
+			int from = board.blank();
+			int to = board.target(Board.opposite(direction));
+			int block = board.get(to);
+			return value + distance(block, to) - distance(block, from);
+		}
+		/**
+		 * Manhattan distance of a block between an index and the target.
+		 * @param block
+		 * @param index
+		 * @return distance
+		 */
+		private int distance(int block, int index) {
+			int goal = position[block];
+			return Math.abs(index / dim - goal / dim) + Math.abs(index % dim - goal % dim);
+		}
+	}
+	/**
+	 * Encoding of frontier nodes spilled to disk: the board, then moves,
+	 * distance, parent slot and direction.
+	 * @author etlove
+	 */
+	private class NodeCodec implements BucketQueue.Codec<BoardNode> {
+		/**
+		 * Dimension
+		 */
+		private final int dim;
+		/**
+		 * 
+		 * @param dim
+		 */
+		private NodeCodec(int dim) {
+			this.dim = dim;
+		}
+		@Override
+		public int size() {
+			return Board.bytes(dim) + 13;
+		}
+		@Override
+		public void write(ByteBuffer buffer, BoardNode node) {
+			node.board.write(buffer);
+			buffer.putInt(node.moves);
+			buffer.putInt(node.distance);
+			buffer.putInt(node.parent);
+			buffer.put((byte) node.direction);
+		}
+		@Override
+		public BoardNode read(ByteBuffer buffer) {
+			Board board = Board.read(buffer, dim);
+			int moves = buffer.getInt();
+			int distance = buffer.getInt();
+			int parent = buffer.getInt();
+			int direction = buffer.get();
+			return new BoardNode(board, moves, distance, parent, direction);
+		}
+	}
 	/**
 	 * 
 	 * @author etlove
 	 */
-	private class BoardNode implements Comparable<BoardNode> {
+	private class BoardNode {
 		/**
 		 * Priority.
 		 */
@@ -102,59 +957,146 @@ public class Solver {
 		 */
 		private int moves;
 		/**
-		 * Link to parent node.
+		 * Estimated moves left of the board.
+		 */
+		private int distance;
+		/**
+		 * Move of the empty block from the parent board.
+		 */
+		private int direction;
+		/**
+		 * Slot of the parent node in the arena.
 		 */
-		private BoardNode parent;
+		private int parent;
+		/**
+		 * Slot of this node in the arena, once expanded.
+		 */
+		private int slot;
 		/**
 		 * Reference to the board.
 		 */
 		private Board board;
 		/**
-		 * 
+		 * Root node, the distance is computed from scratch.
+		 * @param board
+		 */
+		private BoardNode(Board board) {
+			this(board, heuristic);
+		}
+		/**
+		 * Root node of a search toward another target.
 		 * @param board
+		 * @param estimator
+		 */
+		private BoardNode(Board board, Heuristic estimator) {
+			this.board = board;
+			parent = MoveArena.ROOT;
+			moves = 0;
+			distance = estimator.estimate(board);
+			priority = distance + moves;
+		}
+		/**
+		 * Node read back from disk.
+		 * @param board
+		 * @param moves
+		 * @param distance
 		 * @param parent
+		 * @param direction
 		 */
-		private BoardNode(Board board, BoardNode parent) {
-			if (parent == null) {
-				moves = 0;
-			} else {
-				this.parent = parent;
-				moves = parent.moves + 1;
-			}
+		private BoardNode(Board board, int moves, int distance, int parent, int direction) {
 			this.board = board;
-			priority = board.manhattan() + moves;
+			this.moves = moves;
+			this.distance = distance;
+			this.parent = parent;
+			this.direction = direction;
+			priority = distance + moves;
 		}
 		/**
-		 * Comparison based on priority.
+		 * Child node, the distance is updated from the parent.
+		 * @param parent
+		 * @param direction
+		 * @param board parent board after the move
+		 * @param estimator
+		 * @param metrics counters of the search
 		 */
-		@Override
-		public int compareTo(BoardNode that) {
-			return this.priority - that.priority;
+		private BoardNode(BoardNode parent, int direction, Board board, Heuristic estimator,
+				SearchMetrics metrics) {
+			this.parent = parent.slot;
+			this.direction = direction;
+			this.board = board;
+			moves = parent.moves + 1;
+			distance = update(estimator, board, parent.distance, direction, metrics);
+			priority = distance + moves;
 		}
 	}
+	/**
+	 * Heuristic by name: manhattan, hamming, linear, walking or pattern.
+	 * @param name
+	 * @param dim dimension of boards
+	 * @param directory directory of pattern database files
+	 * @return heuristic
+	 * @throws IOException
+	 */
+	static Heuristic heuristic(String name, int dim, String directory) throws IOException {
+		if (name.equals("manhattan")) return Heuristic.MANHATTAN;
+		if (name.equals("hamming")) return Heuristic.HAMMING;
+		if (name.equals("linear")) return new LinearConflict();
+		if (name.equals("walking")) return new WalkingDistance(dim);
+		if (name.equals("pattern")) return new PatternDatabase(dim, new File(directory));
+		throw new IllegalArgumentException("Unknown heuristic " + name);
+	}
 	/**
 	 * Solve a slider puzzle (code given).
 	 * 
 	 * @param args
+	 * @throws IOException
 	 */
-	public static void main(String[] args) {
+	public static void main(String[] args) throws IOException {
 		// create initial board from file
-		In in = new In(args[0]);
-		int N = in.readInt();
-		int[][] blocks = new int[N][N];
-		for (int i = 0; i < N; i++)
-			for (int j = 0; j < N; j++)
-				blocks[i][j] = in.readInt();
-		Board initial = new Board(blocks);
+		Board initial = BoardReader.read(new File(args[0]));
+		int N = initial.dimension();
 
 		// solve the puzzle
-		Solver solver = new Solver(initial);
+		Algorithm algorithm = Algorithm.ASTAR;
+		if (args.length > 1) algorithm = Algorithm.valueOf(args[1].toUpperCase());
+		Heuristic heuristic = Heuristic.MANHATTAN;
+		if (args.length > 2) heuristic = heuristic(args[2], N, args.length > 3 ? args[3] : ".");
+		Options options = new Options().algorithm(algorithm).heuristic(heuristic);
+		// frontier budget in megabytes
+		String budget = System.getProperty("solver.frontier");
+		if (budget != null) options.frontierBudget(Long.parseLong(budget) << 20);
+		// weight and time budget in milliseconds of the anytime search
+		String weight = System.getProperty("solver.weight");
+		if (weight != null) options.weight(Double.parseDouble(weight));
+		String time = System.getProperty("solver.time");
+		if (time != null) options.timeBudget(Long.parseLong(time));
+		// publish the counters over JMX and print them to standard error
+		String name = System.getProperty("solver.metrics");
+		if (name != null) {
+			SearchMetrics metrics = new SearchMetrics();
+			try {
+				metrics.register(name);
+			} catch (JMException e) {
+				throw new IllegalArgumentException("Cannot register metrics " + name, e);
+			}
+			options.metrics(metrics).listener(new SolverListener() {
+				public void progress(SearchMetrics metrics) {
+					System.err.println(metrics);
+				}
+				public void finished(SearchMetrics metrics) {
+					System.err.println(metrics);
+				}
+			});
+		}
+		Solver solver = new Solver(initial, options);
 
 		// print solution to standard output
 		if (!solver.isSolvable())
 			StdOut.println("No solution possible");
 		else {
 			StdOut.println("Minimum number of moves = " + solver.moves());
+			if (algorithm == Algorithm.ANYTIME)
+				StdOut.println("Suboptimality bound = " + solver.suboptimalityBound());
 			for (Board board : solver.solution())
 				StdOut.println(board);
 		}
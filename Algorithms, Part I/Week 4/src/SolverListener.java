@@ -0,0 +1,21 @@
+/**
+ * Observer of a running search.
+ * <p>
+ * Callbacks run on the searching thread, between two expansions, so they
+ * should return quickly. The metrics passed are live and keep changing
+ * after the callback returns.
+ * </p>
+ * @author etlove
+ */
+public interface SolverListener {
+	/**
+	 * Called every SearchMetrics.REPORT_INTERVAL expanded nodes.
+	 * @param metrics metrics of the search so far
+	 */
+	void progress(SearchMetrics metrics);
+	/**
+	 * Called once the search is over, solved or not.
+	 * @param metrics final metrics of the search
+	 */
+	void finished(SearchMetrics metrics);
+}
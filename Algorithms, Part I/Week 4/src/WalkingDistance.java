@@ -0,0 +1,155 @@
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Walking distance of the slider puzzle.
+ * <p>
+ * Vertically, a board is abstracted to how many blocks of each goal row sit
+ * in each row; a move carries one block between the empty block's row and
+ * the next one. The moves needed to settle these counts are found once by
+ * breadth-first search, and the same table serves the columns. Only the
+ * axis of a move changes, so an update encodes that axis alone, a scan of
+ * the board, and looks up its states before and after the move.
+ * </p>
+ * @author etlove
+ */
+public class WalkingDistance implements Heuristic {
+	/**
+	 * Bits of one count in a state, enough for a dimension up to 7.
+	 */
+	private static final int BITS = 3;
+	/**
+	 * Dimension
+	 */
+	private final int dim;
+	/**
+	 * Moves to the goal of each state, counts of blocks by line and goal line
+	 */
+	private final LongIntMap moves = new LongIntMap();
+	/**
+	 * Build the table of a dimension, the states grow quickly beyond 4x4.
+	 * @param dim dimension of boards, from 2 to 4
+	 */
+	public WalkingDistance(int dim) {
+		if (dim < 2 || dim > 4) {
+			throw new IllegalArgumentException("Walking distance supports 2x2 to 4x4 boards");
+		}
+		this.dim = dim;
+		for (Map.Entry<Long, Integer> entry : search().entrySet()) {
+			moves.put(entry.getKey(), entry.getValue());
+		}
+	}
+	/**
+	 * Vertical plus horizontal walking distance.
+	 * @param board board to estimate
+	 * @return estimated moves toward goal
+	 */
+	public int estimate(Board board) {
+		return lookup(encode(board, true)) + lookup(encode(board, false));
+	}
+	/**
+	 * Replace the walking distance of the axis of the move, the state before
+	 * the move differs by the moved block.
+	 * @param board board after the move
+	 * @param value estimate of the board before the move
+	 * @param direction move of the empty block
+	 * @return estimated moves toward goal
+	 */
+	public int update(Board board, int value, int direction) {
+		boolean row = direction == Board.UP || direction == Board.DOWN;
+		// the block moved from the empty block's position to its neighbor
+		int from = board.blank();
+		int to = board.target(Board.opposite(direction));
+		int block = board.get(to) - 1;
+		int goal = row ? block / dim : block % dim;
+		long state = encode(board, row);
+		long previous = state - unit(row ? to / dim : to % dim, goal)
+				+ unit(row ? from / dim : from % dim, goal);
+		return value - lookup(previous) + lookup(state);
+	}
+	/**
+	 * Counts of blocks by line and goal line.
+	 * @param board board to encode
+	 * @param row true for rows, false for columns
+	 * @return state
+	 */
+	private long encode(Board board, boolean row) {
+		if (board.dimension() != dim) {
+			throw new IllegalArgumentException("Board of another dimension");
+		}
+		long state = 0;
+		for (int index = 0; index < dim * dim; index++) {
+			int block = board.get(index) - 1;
+			if (block < 0) continue;
+			if (row) state += unit(index / dim, block / dim);
+			else state += unit(index % dim, block % dim);
+		}
+		return state;
+	}
+	/**
+	 * One block of a goal line in a line.
+	 * @param line
+	 * @param goal
+	 * @return increment of the state
+	 */
+	private long unit(int line, int goal) {
+		return 1L << (BITS * (line * dim + goal));
+	}
+	/**
+	 * Count of blocks of a goal line in a line.
+	 * @param state
+	 * @param line
+	 * @param goal
+	 * @return count
+	 */
+	private int count(long state, int line, int goal) {
+		return (int) (state >>> (BITS * (line * dim + goal))) & ((1 << BITS) - 1);
+	}
+	/**
+	 * Moves to the goal of a state.
+	 * @param state
+	 * @return moves
+	 */
+	private int lookup(long state) {
+		return moves.get(state, 0);
+	}
+	/**
+	 * Breadth-first search from the goal state.
+	 * @return moves of every state
+	 */
+	private Map<Long, Integer> search() {
+		long goal = 0;
+		for (int line = 0; line < dim; line++) {
+			int count = (line == dim - 1) ? dim - 1 : dim;
+			for (int i = 0; i < count; i++) goal += unit(line, line);
+		}
+		Map<Long, Integer> table = new HashMap<Long, Integer>();
+		ArrayDeque<Long> queue = new ArrayDeque<Long>();
+		table.put(goal, 0);
+		queue.add(goal);
+		while (!queue.isEmpty()) {
+			long state = queue.poll();
+			int distance = table.get(state);
+			// the line holding one block less has the empty block
+			int blank = 0;
+			for (int line = 0; line < dim; line++) {
+				int sum = 0;
+				for (int g = 0; g < dim; g++) sum += count(state, line, g);
+				if (sum == dim - 1) blank = line;
+			}
+			for (int line = blank - 1; line <= blank + 1; line += 2) {
+				if (line < 0 || line >= dim) continue;
+				for (int g = 0; g < dim; g++) {
+					if (count(state, line, g) == 0) continue;
+					long next = state - unit(line, g) + unit(blank, g);
+					if (!table.containsKey(next)) {
+						table.put(next, distance + 1);
+						queue.add(next);
+					}
+				}
+			}
+		}
+		return table;
+	}
+}
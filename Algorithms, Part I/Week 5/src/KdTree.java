@@ -1,5 +1,16 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
 /**
- * 
+ * 2d-tree of a set of points.
+ * <p>
+ * Nodes are indexes into parallel arrays of coordinates and children, in
+ * insertion order, so a point costs about 24 bytes instead of a node, a
+ * Point2D and a RectHV. The splitting direction of a node follows from its
+ * depth and its rectangle from the splits above it, so both are derived
+ * during traversals instead of being stored.
+ * </p>
  * @author etlove
  */
 public class KdTree {
@@ -8,37 +19,58 @@ public class KdTree {
 	 */
 	private static final boolean VERTICAL = true;
 	private static final boolean LEFT = true;
+	/**
+	 * Index of no node
+	 */
+	private static final int NIL = -1;
+	/**
+	 * Coordinates of the nodes
+	 */
+	private double[] xs = new double[16], ys = new double[16];
+	/**
+	 * Children of the nodes, NIL if none
+	 */
+	private int[] left = new int[16], right = new int[16];
+	/**
+	 * Number of nodes in the subtree of each node, null without rebalancing
+	 */
+	private int[] count;
 	/**
 	 * Root node;
 	 */
-	private Node root;
+	private int root = NIL;
 	/**
 	 * Size of set;
 	 */
 	private int size = 0;
 	/**
-	 * Node object.
-	 * @author etlove
+	 * Nodes from the root to the parent of the last inserted one
 	 */
-	private class Node {
-		private Point2D point;
-		private RectHV rect;
-		private boolean direction;
-		private Node left;
-		private Node right;
-		/**
-		 * 
-		 * @param p
-		 */
-		public Node(Point2D point, RectHV rect, boolean direction) {
-			this.point = point;
-			this.rect = rect;
-			this.direction = direction;
-		}
-		@Override
-		public String toString() {
-			return this.point.toString();
-		}
+	private int[] path = new int[64];
+	/**
+	 * Number of nodes in the path
+	 */
+	private int depth;
+	/**
+	 * Stack of each thread for range queries, so that they allocate nothing
+	 * once warm; null while in use
+	 */
+	private static final ThreadLocal<NodeStack> RANGE_STACK = new ThreadLocal<NodeStack>();
+	/**
+	 * Empty set, kept in insertion order.
+	 */
+	public KdTree() {
+		this(false);
+	}
+	/**
+	 * Empty set. With rebalancing, a subtree is rebuilt perfectly balanced
+	 * whenever an insertion lands deeper than log(n) / log(3/2) (scapegoat
+	 * tree with alpha = 2/3), so that sorted input cannot degrade the tree
+	 * into a list.
+	 * @param rebalance
+	 */
+	public KdTree(boolean rebalance) {
+		if (rebalance) count = new int[16];
 	}
 	/**
 	 * Is the set empty?
@@ -59,133 +91,189 @@ public class KdTree {
 	 * @param p
 	 */
 	public void insert(Point2D p) {
-		root = insert(root, null, p);
-	}
-	
-	private Node insert(Node node, Node parent, Point2D p) {
-		if (node == null) {
-			size++;
-			//
-			boolean direction;
-			double xmin = 0.0, ymin = 0.0;
-			double xmax = 1.0, ymax = 1.0;
-			//
-			if (parent != null) {
-				direction = !parent.direction;
-				if (parent.direction == VERTICAL) {
-					ymin = parent.rect.ymin();
-					ymax = parent.rect.ymax();
-					if (p.x() < parent.point.x()) {
-						xmin = parent.rect.xmin();
-						xmax = parent.point.x();
-					} else {
-						xmin = parent.point.x();
-						xmax = parent.rect.xmax();
-					}
+		double x = p.x();
+		double y = p.y();
+		int parent = NIL;
+		boolean side = LEFT;
+		boolean direction = VERTICAL;
+		depth = 0;
+		for (int node = root; node != NIL; direction = !direction) {
+			if (xs[node] == x && ys[node] == y) return;
+			if (depth == path.length) path = Arrays.copyOf(path, 2 * depth);
+			path[depth++] = node;
+			parent = node;
+			side = getSide(node, direction, x, y);
+			node = side == LEFT ? left[node] : right[node];
+		}
+		int node = add(x, y);
+		if (parent == NIL) {
+			root = node;
+		} else if (side == LEFT) {
+			left[parent] = node;
+		} else {
+			right[parent] = node;
+		}
+		if (count == null) return;
+		for (int i = 0; i < depth; i++) count[path[i]]++;
+		if (depth > Math.log(size) / Math.log(1.5)) rebalance(node);
+	}
+	/**
+	 * Store a new leaf.
+	 * @param x
+	 * @param y
+	 * @return index of the node
+	 */
+	private int add(double x, double y) {
+		if (size == xs.length) {
+			int capacity = 2 * size;
+			xs = Arrays.copyOf(xs, capacity);
+			ys = Arrays.copyOf(ys, capacity);
+			left = Arrays.copyOf(left, capacity);
+			right = Arrays.copyOf(right, capacity);
+			if (count != null) count = Arrays.copyOf(count, capacity);
+		}
+		xs[size] = x;
+		ys[size] = y;
+		left[size] = NIL;
+		right[size] = NIL;
+		if (count != null) count[size] = 1;
+		return size++;
+	}
+	/**
+	 * Rebuild the subtree of the lowest ancestor of a deep new node whose
+	 * child holds more than 2/3 of its nodes.
+	 * @param node new node, below the nodes of the path
+	 */
+	private void rebalance(int node) {
+		int child = node;
+		for (int i = depth - 1; i >= 0; i--) {
+			int scapegoat = path[i];
+			if (3 * count[child] > 2 * count[scapegoat]) {
+				// directions alternate from the root, which is vertical
+				int rebuilt = rebuild(scapegoat, i % 2 == 0);
+				if (i == 0) {
+					root = rebuilt;
+				} else if (left[path[i - 1]] == scapegoat) {
+					left[path[i - 1]] = rebuilt;
 				} else {
-					xmin = parent.rect.xmin();
-					xmax = parent.rect.xmax();
-					if (p.y() < parent.point.y()) {
-						ymin = parent.rect.ymin();
-						ymax = parent.point.y();
-					} else {
-						ymin = parent.point.y();
-						ymax = parent.rect.ymax();
-					}
+					right[path[i - 1]] = rebuilt;
 				}
-			} else {
-				direction = VERTICAL;
+				return;
 			}
-			RectHV rect = new RectHV(xmin, ymin, xmax, ymax);
-			return new Node(p, rect, direction);
-		} else {
-			if (node.point.equals(p)) return node;
+			child = scapegoat;
 		}
-		
-		boolean side = getSide(node, p);
-		if (side == LEFT) {
-			node.left = insert(node.left, node, p);
-		} else {
-			node.right = insert(node.right, node, p);
+	}
+	/**
+	 * Relink the nodes of a subtree into a balanced one.
+	 * @param node root of the subtree
+	 * @param direction of the root
+	 * @return new root
+	 */
+	private int rebuild(int node, boolean direction) {
+		int[] nodes = new int[count[node]];
+		int n = 0;
+		nodes[n++] = node;
+		// breadth first, the array is its own queue
+		for (int i = 0; i < n; i++) {
+			if (left[nodes[i]] != NIL) nodes[n++] = left[nodes[i]];
+			if (right[nodes[i]] != NIL) nodes[n++] = right[nodes[i]];
 		}
+		return build(nodes, 0, n, direction);
+	}
+	/**
+	 * Median partitioning, the depth of the recursion is logarithmic.
+	 * @param nodes
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param direction
+	 * @return root of the subtree, NIL if empty
+	 */
+	private int build(int[] nodes, int lo, int hi, boolean direction) {
+		if (lo >= hi) return NIL;
+		int mid = (lo + hi) >>> 1;
+		select(nodes, lo, hi, mid, direction);
+		int node = nodes[mid];
+		count[node] = hi - lo;
+		left[node] = build(nodes, lo, mid, !direction);
+		right[node] = build(nodes, mid + 1, hi, !direction);
 		return node;
 	}
+	/**
+	 * Quickselect in the order of getSide().
+	 * @param nodes
+	 * @param lo first index
+	 * @param hi index after the last
+	 * @param k index to put in place
+	 * @param direction
+	 */
+	private void select(int[] nodes, int lo, int hi, int k, boolean direction) {
+		while (hi - lo > 1) {
+			swap(nodes, lo, (lo + hi) >>> 1);
+			int pivot = nodes[lo];
+			int lt = lo;
+			for (int i = lo + 1; i < hi; i++) {
+				if (getSide(pivot, direction, xs[nodes[i]], ys[nodes[i]]) == LEFT) swap(nodes, ++lt, i);
+			}
+			swap(nodes, lo, lt);
+			if (k < lt) hi = lt;
+			else if (k > lt) lo = lt + 1;
+			else return;
+		}
+	}
+	/**
+	 * 
+	 * @param nodes
+	 * @param i
+	 * @param j
+	 */
+	private static void swap(int[] nodes, int i, int j) {
+		int node = nodes[i];
+		nodes[i] = nodes[j];
+		nodes[j] = node;
+	}
 	/**
 	 * does the set contain the point p?
 	 * @param p Point2D object
 	 * @return true of p exists else false
 	 */
 	public boolean contains(Point2D p) {
-		return getNode(root, p) != null;
-	}
-	/**
-	 * 
-	 * @param node
-	 * @param p
-	 * @return
-	 */
-	private Node getNode(Node node, Point2D p) {
-		if (node == null) return null;
-		
-		if (node.point.equals(p)) return node;
-		
-		boolean side = getSide(node, p);
-		if (side == LEFT) {
-			return getNode(node.left, p);
-		} else {
-			return getNode(node.right, p);
+		double x = p.x();
+		double y = p.y();
+		boolean direction = VERTICAL;
+		for (int node = root; node != NIL; direction = !direction) {
+			if (xs[node] == x && ys[node] == y) return true;
+			node = getSide(node, direction, x, y) == LEFT ? left[node] : right[node];
 		}
+		return false;
 	}
 	/**
 	 * draw all of the points to standard draw.
 	 */
 	public void draw() {
-		draw(root, null);
-	}
-	
-	private void draw(Node node, Node parent) {
-		if (node == null) return;
-		// Draw point
-		StdDraw.setPenColor(StdDraw.BLACK);
-		StdDraw.setPenRadius(.05);
-		node.point.draw();
-		// Draw line
-		StdDraw.setPenRadius(.01);
-		double x1, y1, x2, y2;
-		if (node.direction == VERTICAL) {
-			StdDraw.setPenColor(StdDraw.RED);
-			x1 = node.point.x();
-			x2 = node.point.x();
-			if (parent != null) {
-				if (node.point.y() < parent.point.y()) {
-					y1 = parent.rect.ymin();
-					y2 = parent.point.y();
-				} else {
-					y1 = parent.point.y();
-					y2 = parent.rect.ymax();
-				}
+		NodeStack stack = new NodeStack();
+		stack.push(root, VERTICAL, 0.0, 0.0, 1.0, 1.0);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			double x = xs[node];
+			double y = ys[node];
+			// Draw point
+			StdDraw.setPenColor(StdDraw.BLACK);
+			StdDraw.setPenRadius(.05);
+			StdDraw.point(x, y);
+			// Draw line across the rectangle of the node
+			StdDraw.setPenRadius(.01);
+			if (stack.direction() == VERTICAL) {
+				StdDraw.setPenColor(StdDraw.RED);
+				StdDraw.line(x, stack.ymin(), x, stack.ymax());
+				stack.push(right[node], !VERTICAL, x, stack.ymin(), stack.xmax(), stack.ymax());
+				stack.push(left[node], !VERTICAL, stack.xmin(), stack.ymin(), x, stack.ymax());
 			} else {
-				y1 = 0.0;
-				y2 = 1.0;
+				StdDraw.setPenColor(StdDraw.BLUE);
+				StdDraw.line(stack.xmin(), y, stack.xmax(), y);
+				stack.push(right[node], VERTICAL, stack.xmin(), y, stack.xmax(), stack.ymax());
+				stack.push(left[node], VERTICAL, stack.xmin(), stack.ymin(), stack.xmax(), y);
 			}
-		} else {
-			StdDraw.setPenColor(StdDraw.BLUE);
-			if (node.point.x() < parent.point.x()) {
-				x1 = parent.rect.xmin();
-				x2 = parent.point.x();
-			} else {
-				x1 = parent.point.x();
-				x2 = parent.rect.xmax();
-			}
-			y1 = node.point.y();
-			y2 = node.point.y();
 		}
-		Point2D start = new Point2D(x1, y1);
-		Point2D end = new Point2D(x2, y2);
-		start.drawTo(end);
-		// Draw left and right node
-		draw(node.left, node);
-		draw(node.right, node);
 	}
 	/**
 	 * All points in the set that are inside the rectangle.
@@ -193,92 +281,586 @@ public class KdTree {
 	 * @return iterator of all points
 	 */
 	public Iterable<Point2D> range(RectHV rect) {
-		SET<Point2D> result = new SET<Point2D>();
-		searchRange(root, rect, result);
+		// points of a set are unique, no need to sort them out
+		final Queue<Point2D> result = new Queue<Point2D>();
+		range(rect, new PointVisitor() {
+			public void visit(double x, double y) {
+				result.enqueue(new Point2D(x, y));
+			}
+		});
 		return result;
 	}
 	/**
-	 * 
+	 * Visit the points in the set that are inside the rectangle, without
+	 * collecting them.
+	 * @param rect
+	 * @param visitor
+	 */
+	public void range(RectHV rect, PointVisitor visitor) {
+		NodeStack stack = takeRangeStack();
+		stack.push(root, VERTICAL);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			if (inRange(rect, node)) visitor.visit(xs[node], ys[node]);
+			pushOverlapping(stack, node, rect);
+		}
+		RANGE_STACK.set(stack);
+	}
+	/**
+	 * Number of points in the set that are inside the rectangle.
+	 * @param rect
+	 * @return count
+	 */
+	public int rangeCount(RectHV rect) {
+		int count = 0;
+		NodeStack stack = takeRangeStack();
+		stack.push(root, VERTICAL);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			if (inRange(rect, node)) count++;
+			pushOverlapping(stack, node, rect);
+		}
+		RANGE_STACK.set(stack);
+		return count;
+	}
+	/**
+	 * The range stack of the thread, to be set back once empty. A visitor
+	 * querying again while it is in use gets a new one.
+	 * @return empty stack
+	 */
+	private static NodeStack takeRangeStack() {
+		NodeStack stack = RANGE_STACK.get();
+		if (stack == null) return new NodeStack();
+		RANGE_STACK.set(null);
+		return stack;
+	}
+	/**
+	 * Push the children of the node last popped whose side of the split
+	 * meets the rectangle. The left side holds coordinates up to the
+	 * split, the right one from it.
+	 * @param stack
 	 * @param node
 	 * @param rect
-	 * @param result
 	 */
-	private void searchRange(Node node, RectHV rect, SET<Point2D> result) {
-		if (node == null || !node.rect.intersects(rect)) return;
-		
-		if (inRange(rect, node.point)) result.add(node.point);
-		
-		searchRange(node.left, rect, result);
-		searchRange(node.right, rect, result);
+	private void pushOverlapping(NodeStack stack, int node, RectHV rect) {
+		boolean direction = stack.direction();
+		double split = direction == VERTICAL ? xs[node] : ys[node];
+		if ((direction == VERTICAL ? rect.xmax() : rect.ymax()) >= split) stack.push(right[node], !direction);
+		if ((direction == VERTICAL ? rect.xmin() : rect.ymin()) <= split) stack.push(left[node], !direction);
 	}
 	/**
-	 * A nearest neighbor in the set to p; null if set is empty.
+	 * A nearest neighbor in the set to p; null if set is empty. The search
+	 * keeps its state on the stack, so threads may query a tree at the
+	 * same time as long as none inserts.
 	 * 
 	 * @param p Point2D object
 	 * @return nearest neighbor in the set to p; null if set is empty
 	 */
-	private Node candidate;
 	public Point2D nearest(Point2D p) {
-		if (root == null) return null;
-		candidate = root;
-		nearest(root, p);
-		return candidate.point;
+		if (root == NIL) return null;
+		int node = nearest(p.x(), p.y(), root, new NodeStack());
+		return new Point2D(xs[node], ys[node]);
 	}
 	/**
-	 * 
-	 * @param candidate
+	 * Depth-first search from the root, the side of p first, skipping
+	 * subtrees whose rectangle is farther than the nearest node so far.
+	 * Only the other sides wait on the stack.
+	 * @param x
+	 * @param y
+	 * @param candidate nearest node so far
+	 * @param stack empty stack to work in, left empty
+	 * @return nearest node
+	 */
+	private int nearest(double x, double y, int candidate, NodeStack stack) {
+		double distToCand = distanceSquared(candidate, x, y);
+		stack.push(root, VERTICAL, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			boolean direction = stack.direction();
+			double xmin = stack.xmin(), ymin = stack.ymin();
+			double xmax = stack.xmax(), ymax = stack.ymax();
+			while (node != NIL && distanceSquared(xmin, ymin, xmax, ymax, x, y) <= distToCand) {
+				double distToNode = distanceSquared(node, x, y);
+				if (distToNode < distToCand) {
+					candidate = node;
+					distToCand = distToNode;
+				}
+				boolean side = getSide(node, direction, x, y);
+				if (direction == VERTICAL) {
+					double split = xs[node];
+					if (side == LEFT) {
+						stack.push(right[node], !direction, split, ymin, xmax, ymax);
+						xmax = split;
+					} else {
+						stack.push(left[node], !direction, xmin, ymin, split, ymax);
+						xmin = split;
+					}
+				} else {
+					double split = ys[node];
+					if (side == LEFT) {
+						stack.push(right[node], !direction, xmin, split, xmax, ymax);
+						ymax = split;
+					} else {
+						stack.push(left[node], !direction, xmin, ymin, xmax, split);
+						ymin = split;
+					}
+				}
+				node = side == LEFT ? left[node] : right[node];
+				direction = !direction;
+			}
+		}
+		return candidate;
+	}
+	/**
+	 * Nearest neighbors of many points at once; null entries if the set is
+	 * empty. Queries are sorted along a Z-order curve, so that consecutive
+	 * ones are close, and each search starts from the answer of the
+	 * previous one, which prunes most of the tree at once. Runs of sorted
+	 * queries are split across the common ForkJoin pool.
+	 * @param queries
+	 * @return nearest neighbor of each query, in the same order
+	 */
+	public Point2D[] nearest(Point2D[] queries) {
+		Point2D[] result = new Point2D[queries.length];
+		if (root == NIL || queries.length == 0) return result;
+		long[] order = new long[queries.length];
+		for (int i = 0; i < queries.length; i++) {
+			order[i] = (zOrder(queries[i]) & 0xFFFFFFFFL) << 31 | i;
+		}
+		Arrays.sort(order);
+		ForkJoinPool.commonPool().invoke(new BatchSearch(queries, order, result, 0, order.length));
+		return result;
+	}
+	/**
+	 * Nearest neighbors of a run of sorted queries.
+	 * @author etlove
+	 */
+	@SuppressWarnings("serial")
+	private class BatchSearch extends RecursiveAction {
+		/**
+		 * Queries per task below which the run is searched in place
+		 */
+		private static final int THRESHOLD = 1024;
+		private final Point2D[] queries;
+		/**
+		 * Indexes of the queries in their low 31 bits, in Z-order
+		 */
+		private final long[] order;
+		private final Point2D[] result;
+		private final int lo, hi;
+		/**
+		 * 
+		 * @param queries
+		 * @param order
+		 * @param result
+		 * @param lo first position in order
+		 * @param hi position after the last
+		 */
+		private BatchSearch(Point2D[] queries, long[] order, Point2D[] result, int lo, int hi) {
+			this.queries = queries;
+			this.order = order;
+			this.result = result;
+			this.lo = lo;
+			this.hi = hi;
+		}
+		@Override
+		protected void compute() {
+			if (hi - lo > THRESHOLD) {
+				int mid = (lo + hi) >>> 1;
+				invokeAll(new BatchSearch(queries, order, result, lo, mid),
+						new BatchSearch(queries, order, result, mid, hi));
+				return;
+			}
+			int candidate = root;
+			NodeStack stack = new NodeStack();
+			for (int i = lo; i < hi; i++) {
+				int index = (int) (order[i] & Integer.MAX_VALUE);
+				candidate = nearest(queries[index].x(), queries[index].y(), candidate, stack);
+				result[index] = new Point2D(xs[candidate], ys[candidate]);
+			}
+		}
+	}
+	/**
+	 * Position of a point along a Z-order curve over the unit square,
+	 * interleaving 16 bits of each coordinate.
 	 * @param p
+	 * @return 32-bit code
 	 */
-	private void nearest(Node node, Point2D p) {
-		if (node == null) return;
-		
-		double distToCand = candidate.point.distanceSquaredTo(p);
-		double distToRect = node.rect.distanceSquaredTo(p);
-		
-		if (distToCand < distToRect) return;
-		
-		double distToNode = node.point.distanceSquaredTo(p);
-		if (distToNode < distToCand) candidate = node;
-		
-		Node primary, secondary;
-		if (node.point.compareTo(p) < 0) {
-			primary = node.right;
-			secondary = node.left;
+	private static int zOrder(Point2D p) {
+		return spread(quantize(p.x())) | spread(quantize(p.y())) << 1;
+	}
+	/**
+	 * 
+	 * @param coordinate
+	 * @return coordinate clamped to [0, 1] and scaled to 16 bits
+	 */
+	private static int quantize(double coordinate) {
+		if (!(coordinate > 0)) return 0;
+		if (coordinate >= 1) return 0xFFFF;
+		return (int) (coordinate * 0x10000);
+	}
+	/**
+	 * 
+	 * @param v 16-bit value
+	 * @return bits of v moved to even positions
+	 */
+	private static int spread(int v) {
+		v = (v | (v << 8)) & 0x00FF00FF;
+		v = (v | (v << 4)) & 0x0F0F0F0F;
+		v = (v | (v << 2)) & 0x33333333;
+		v = (v | (v << 1)) & 0x55555555;
+		return v;
+	}
+	/**
+	 * The k nearest neighbors in the set to p, nearest first; all points if
+	 * the set holds fewer than k.
+	 * @param p Point2D object
+	 * @param k number of neighbors
+	 * @return nearest neighbors
+	 */
+	public Iterable<Point2D> nearest(Point2D p, int k) {
+		if (k < 0) throw new IllegalArgumentException("Negative number of neighbors: " + k);
+		Neighbors neighbors = new Neighbors(Math.min(k, size()));
+		if (k > 0) nearest(p.x(), p.y(), neighbors);
+		Queue<Point2D> result = new Queue<Point2D>();
+		for (int node : neighbors.sorted()) result.enqueue(new Point2D(xs[node], ys[node]));
+		return result;
+	}
+	/**
+	 * Search like nearest(), pruning subtrees farther than the farthest of
+	 * the k best points once there are k of them.
+	 * @param x
+	 * @param y
+	 * @param neighbors best points so far
+	 */
+	private void nearest(double x, double y, Neighbors neighbors) {
+		NodeStack stack = new NodeStack();
+		stack.push(root, VERTICAL, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			if (neighbors.isFull() && distanceSquared(stack, x, y) >= neighbors.farthest()) continue;
+			
+			neighbors.offer(node, distanceSquared(node, x, y));
+			
+			// the side of p goes on top
+			if (getSide(node, stack.direction(), x, y) == LEFT) {
+				pushChild(stack, node, !LEFT);
+				pushChild(stack, node, LEFT);
+			} else {
+				pushChild(stack, node, LEFT);
+				pushChild(stack, node, !LEFT);
+			}
+		}
+	}
+	/**
+	 * All points in the set within a distance of p.
+	 * @param p Point2D object
+	 * @param r radius
+	 * @return iterator of the points, in no particular order
+	 */
+	public Iterable<Point2D> withinRadius(Point2D p, double r) {
+		Queue<Point2D> result = new Queue<Point2D>();
+		if (r < 0) return result;
+		double x = p.x();
+		double y = p.y();
+		double r2 = r * r;
+		NodeStack stack = new NodeStack();
+		stack.push(root, VERTICAL, Double.NEGATIVE_INFINITY, Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY);
+		while (!stack.isEmpty()) {
+			int node = stack.pop();
+			if (distanceSquared(stack, x, y) > r2) continue;
+			if (distanceSquared(node, x, y) <= r2) result.enqueue(new Point2D(xs[node], ys[node]));
+			pushChild(stack, node, !LEFT);
+			pushChild(stack, node, LEFT);
+		}
+		return result;
+	}
+	/**
+	 * Push a child of the node last popped, with its rectangle.
+	 * @param stack
+	 * @param node
+	 * @param side LEFT or not
+	 */
+	private void pushChild(NodeStack stack, int node, boolean side) {
+		boolean direction = stack.direction();
+		double xmin = stack.xmin(), ymin = stack.ymin();
+		double xmax = stack.xmax(), ymax = stack.ymax();
+		if (direction == VERTICAL) {
+			if (side == LEFT) xmax = xs[node];
+			else xmin = xs[node];
 		} else {
-			primary = node.left;
-			secondary = node.right;
+			if (side == LEFT) ymax = ys[node];
+			else ymin = ys[node];
+		}
+		stack.push(side == LEFT ? left[node] : right[node], !direction, xmin, ymin, xmax, ymax);
+	}
+	/**
+	 * Stack of the nodes left to visit by a traversal, each with its
+	 * direction and, if pushed with one, its rectangle, so that a degenerate
+	 * tree cannot overflow the call stack. The accessors read the entry
+	 * last popped.
+	 * @author etlove
+	 */
+	private static class NodeStack {
+		/**
+		 * Node index shifted left once, low bit set if vertical
+		 */
+		private int[] nodes = new int[32];
+		/**
+		 * xmin, ymin, xmax, ymax of each entry, null until an entry is
+		 * pushed with a rectangle
+		 */
+		private double[] bounds;
+		private int size;
+		/**
+		 * Entry last popped
+		 */
+		private boolean direction;
+		private double xmin, ymin, xmax, ymax;
+		/**
+		 * Push a node without rectangle, NIL is left out.
+		 * @param node
+		 * @param direction
+		 */
+		private void push(int node, boolean direction) {
+			if (node == NIL) return;
+			if (size == nodes.length) {
+				nodes = Arrays.copyOf(nodes, 2 * size);
+				if (bounds != null) bounds = Arrays.copyOf(bounds, 8 * size);
+			}
+			nodes[size++] = node << 1 | (direction == VERTICAL ? 1 : 0);
+		}
+		/**
+		 * Push a node with its rectangle, NIL is left out.
+		 * @param node
+		 * @param direction
+		 * @param xmin
+		 * @param ymin
+		 * @param xmax
+		 * @param ymax
+		 */
+		private void push(int node, boolean direction, double xmin, double ymin, double xmax, double ymax) {
+			if (node == NIL) return;
+			push(node, direction);
+			if (bounds == null) bounds = new double[4 * nodes.length];
+			int i = 4 * (size - 1);
+			bounds[i] = xmin;
+			bounds[i + 1] = ymin;
+			bounds[i + 2] = xmax;
+			bounds[i + 3] = ymax;
+		}
+		/**
+		 * 
+		 * @return node on top, removed
+		 */
+		private int pop() {
+			int entry = nodes[--size];
+			direction = (entry & 1) != 0;
+			if (bounds == null) return entry >> 1;
+			int i = 4 * size;
+			xmin = bounds[i];
+			ymin = bounds[i + 1];
+			xmax = bounds[i + 2];
+			ymax = bounds[i + 3];
+			return entry >> 1;
+		}
+		private boolean direction() {
+			return direction;
+		}
+		private double xmin() {
+			return xmin;
+		}
+		private double ymin() {
+			return ymin;
+		}
+		private double xmax() {
+			return xmax;
+		}
+		private double ymax() {
+			return ymax;
+		}
+		private boolean isEmpty() {
+			return size == 0;
+		}
+	}
+	/**
+	 * Bounded max-heap of the nearest nodes found by a k-nearest search,
+	 * keyed by squared distance.
+	 * @author etlove
+	 */
+	private static class Neighbors {
+		/**
+		 * Nodes in heap order from index 1
+		 */
+		private final int[] nodes;
+		/**
+		 * Squared distance of each node
+		 */
+		private final double[] distances;
+		/**
+		 * Number of nodes
+		 */
+		private int size;
+		/**
+		 * 
+		 * @param k capacity
+		 */
+		private Neighbors(int k) {
+			nodes = new int[k + 1];
+			distances = new double[k + 1];
+		}
+		/**
+		 * Are there k nodes already?
+		 * @return true if full
+		 */
+		private boolean isFull() {
+			return size == nodes.length - 1;
+		}
+		/**
+		 * Squared distance of the farthest node kept.
+		 * @return distance
+		 */
+		private double farthest() {
+			return distances[1];
+		}
+		/**
+		 * Keep the node if there is room or if it is nearer than the
+		 * farthest one, which is then dropped.
+		 * @param node
+		 * @param distance squared distance
+		 */
+		private void offer(int node, double distance) {
+			if (!isFull()) {
+				size++;
+				nodes[size] = node;
+				distances[size] = distance;
+				swim(size);
+			} else if (distance < distances[1]) {
+				nodes[1] = node;
+				distances[1] = distance;
+				sink(1);
+			}
+		}
+		/**
+		 * Empty the heap, nearest node first.
+		 * @return nodes
+		 */
+		private int[] sorted() {
+			int[] order = new int[size];
+			while (size > 0) {
+				order[size - 1] = nodes[1];
+				exchange(1, size);
+				size--;
+				sink(1);
+			}
+			return order;
+		}
+		/**
+		 * 
+		 * @param i
+		 */
+		private void swim(int i) {
+			while (i > 1 && distances[i / 2] < distances[i]) {
+				exchange(i, i / 2);
+				i /= 2;
+			}
+		}
+		/**
+		 * 
+		 * @param i
+		 */
+		private void sink(int i) {
+			while (2 * i <= size) {
+				int j = 2 * i;
+				if (j < size && distances[j] < distances[j + 1]) j++;
+				if (distances[i] >= distances[j]) break;
+				exchange(i, j);
+				i = j;
+			}
+		}
+		/**
+		 * 
+		 * @param i
+		 * @param j
+		 */
+		private void exchange(int i, int j) {
+			int node = nodes[i];
+			nodes[i] = nodes[j];
+			nodes[j] = node;
+			double distance = distances[i];
+			distances[i] = distances[j];
+			distances[j] = distance;
 		}
-
-		nearest(primary, p);
-		nearest(secondary, p);
 	}
 	/**
-	 * Should the Point2D p be placed in the left node of node.
-	 * @param node Node
-	 * @param p Point2D
-	 * @return true if p should be the left node of node
+	 * Should the point (x, y) be placed in the left node of node. Ties on
+	 * the splitting coordinate are broken by the other one.
+	 * @param node
+	 * @param direction of the node
+	 * @param x
+	 * @param y
+	 * @return true if the point should be the left node of node
 	 */
-	private static boolean getSide(Node node, Point2D point) {
-		if (node.direction == VERTICAL) {
-			return (point.x() < node.point.x()) && LEFT;
+	private boolean getSide(int node, boolean direction, double x, double y) {
+		if (direction == VERTICAL) {
+			return (x < xs[node] || x == xs[node] && y < ys[node]) && LEFT;
 		} else {
-			return (point.y() < node.point.y()) && LEFT;
+			return (y < ys[node] || y == ys[node] && x < xs[node]) && LEFT;
 		}
 	}
 	/**
 	 * 
 	 * @param rect
-	 * @param point
-	 * @return
-	 */
-	private static boolean inRange(RectHV rect, Point2D point) {
-		double x = point.x();
-		double y = point.y();
-		if (x >= rect.xmin() && x <= rect.xmax() &&
-				y >= rect.ymin() && y <= rect.ymax()) {
-			return true;
-		} else {
-			return false;
-		}
+	 * @param node
+	 * @return true if the point of the node is inside the rectangle
+	 */
+	private boolean inRange(RectHV rect, int node) {
+		double x = xs[node];
+		double y = ys[node];
+		return x >= rect.xmin() && x <= rect.xmax() && y >= rect.ymin() && y <= rect.ymax();
+	}
+	/**
+	 * 
+	 * @param node
+	 * @param x
+	 * @param y
+	 * @return square of the distance between the point of the node and (x, y)
+	 */
+	private double distanceSquared(int node, double x, double y) {
+		double dx = xs[node] - x;
+		double dy = ys[node] - y;
+		return dx * dx + dy * dy;
+	}
+	/**
+	 * 
+	 * @param stack
+	 * @param x
+	 * @param y
+	 * @return square of the distance between the rectangle of the entry last
+	 * popped and (x, y)
+	 */
+	private static double distanceSquared(NodeStack stack, double x, double y) {
+		return distanceSquared(stack.xmin(), stack.ymin(), stack.xmax(), stack.ymax(), x, y);
+	}
+	/**
+	 * 
+	 * @param xmin
+	 * @param ymin
+	 * @param xmax
+	 * @param ymax
+	 * @param x
+	 * @param y
+	 * @return square of the distance between the rectangle and (x, y)
+	 */
+	private static double distanceSquared(double xmin, double ymin, double xmax, double ymax, double x, double y) {
+		double dx = 0.0, dy = 0.0;
+		if (x < xmin) dx = x - xmin;
+		else if (x > xmax) dx = x - xmax;
+		if (y < ymin) dy = y - ymin;
+		else if (y > ymax) dy = y - ymax;
+		return dx * dx + dy * dy;
 	}
 }
@@ -0,0 +1,71 @@
+/**
+ * Throughput of concurrent nearest-neighbor queries on one shared KdTree,
+ * from one thread up to one per core, then of the batch query.
+ * <p>
+ * Each thread runs the same number of random queries, so with a tree
+ * safely shared for reads the queries per second should grow linearly with
+ * the threads until the cores are used up. Every answer is checked against
+ * one computed beforehand on a single thread.
+ * </p>
+ * Usage: java NearestBenchmark input.txt [queries per thread]
+ * @author etlove
+ */
+public class NearestBenchmark {
+	/**
+	 *
+	 * @param args
+	 * @throws InterruptedException
+	 */
+	public static void main(String[] args) throws InterruptedException {
+		final KdTree tree = new KdTree();
+		In in = new In(args[0]);
+		while (!in.isEmpty()) tree.insert(new Point2D(in.readDouble(), in.readDouble()));
+		final int count = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+		final Point2D[] queries = new Point2D[count];
+		final Point2D[] expected = new Point2D[count];
+		for (int i = 0; i < count; i++) {
+			queries[i] = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+			expected[i] = tree.nearest(queries[i]);
+		}
+		int cores = Runtime.getRuntime().availableProcessors();
+		double single = 0;
+		// 1, 2, 4, ... threads, then one per core
+		for (int threads = 1; ; threads = Math.min(2 * threads, cores)) {
+			Thread[] workers = new Thread[threads];
+			final int[] mismatches = new int[threads];
+			for (int t = 0; t < threads; t++) {
+				final int id = t;
+				workers[t] = new Thread(new Runnable() {
+					public void run() {
+						// start at different queries so threads do not walk in step
+						for (int i = 0; i < count; i++) {
+							int q = (i + id * (count / 8 + 1)) % count;
+							if (!tree.nearest(queries[q]).equals(expected[q])) mismatches[id]++;
+						}
+					}
+				});
+			}
+			long start = System.nanoTime();
+			for (Thread worker : workers) worker.start();
+			for (Thread worker : workers) worker.join();
+			double rate = (double) threads * count * 1e9 / (System.nanoTime() - start);
+			if (threads == 1) single = rate;
+			int errors = 0;
+			for (int m : mismatches) errors += m;
+			StdOut.printf("%3d threads %12.0f queries/s  speedup %5.2f  mismatches %d%n", threads, rate,
+					rate / single, errors);
+			if (threads >= cores) break;
+		}
+		// the same queries at once, sorted and spread over the cores, timed
+		// once the JIT and the pool threads are warm
+		for (int i = 0; i < 5; i++) tree.nearest(queries);
+		long start = System.nanoTime();
+		Point2D[] answers = tree.nearest(queries);
+		double rate = count * 1e9 / (System.nanoTime() - start);
+		int errors = 0;
+		for (int i = 0; i < count; i++) {
+			if (!answers[i].equals(expected[i])) errors++;
+		}
+		StdOut.printf("      batch %12.0f queries/s  speedup %5.2f  mismatches %d%n", rate, rate / single, errors);
+	}
+}
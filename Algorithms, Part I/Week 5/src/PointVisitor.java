@@ -0,0 +1,12 @@
+/**
+ * Receiver of the points found by a range search, one call per point.
+ * @author etlove
+ */
+public interface PointVisitor {
+	/**
+	 * Visit a point inside the rectangle.
+	 * @param x
+	 * @param y
+	 */
+	void visit(double x, double y);
+}
@@ -0,0 +1,322 @@
+import java.util.Arrays;
+
+/**
+ * Balanced 2d-tree built once from a whole set of points.
+ * <p>
+ * The tree is laid out in two flat coordinate arrays: the points of a
+ * subtree fill a range of indexes, its root is the median of the range by
+ * the splitting coordinate, and the two halves of the range hold its
+ * children. Children are found from indexes alone, so queries allocate
+ * nothing but their results.
+ * </p>
+ * @author etlove
+ */
+public class StaticKdTree {
+	/**
+	 * Coordinates of the points, in tree order
+	 */
+	private final double[] xs, ys;
+	/**
+	 * Build the tree from points, duplicates are kept once.
+	 * @param points
+	 */
+	public StaticKdTree(Point2D[] points) {
+		Point2D[] sorted = points.clone();
+		Arrays.sort(sorted);
+		int n = 0;
+		for (int i = 0; i < sorted.length; i++) {
+			if (i == 0 || !sorted[i].equals(sorted[i - 1])) sorted[n++] = sorted[i];
+		}
+		xs = new double[n];
+		ys = new double[n];
+		for (int i = 0; i < n; i++) {
+			xs[i] = sorted[i].x();
+			ys[i] = sorted[i].y();
+		}
+		build(0, n, true);
+	}
+	/**
+	 * Build the tree from a file of x and y coordinates.
+	 * @param filename
+	 * @return tree
+	 */
+	public static StaticKdTree read(String filename) {
+		double[] coordinates = new In(filename).readAllDoubles();
+		Point2D[] points = new Point2D[coordinates.length / 2];
+		for (int i = 0; i < points.length; i++) {
+			points[i] = new Point2D(coordinates[2 * i], coordinates[2 * i + 1]);
+		}
+		return new StaticKdTree(points);
+	}
+	/**
+	 * Is the set empty?
+	 * @return true if empty else false
+	 */
+	public boolean isEmpty() {
+		return xs.length == 0;
+	}
+	/**
+	 * number of points in the set.
+	 * @return number of points in the set
+	 */
+	public int size() {
+		return xs.length;
+	}
+	/**
+	 * does the set contain the point p?
+	 * @param p Point2D object
+	 * @return true of p exists else false
+	 */
+	public boolean contains(Point2D p) {
+		return contains(0, xs.length, true, p.x(), p.y());
+	}
+	/**
+	 *
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 * @param x
+	 * @param y
+	 * @return true if found
+	 */
+	private boolean contains(int lo, int hi, boolean vertical, double x, double y) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (xs[mid] == x && ys[mid] == y) return true;
+			double split = vertical ? xs[mid] : ys[mid];
+			double key = vertical ? x : y;
+			// points equal to the split may lie on both sides
+			if (key == split && contains(lo, mid, !vertical, x, y)) return true;
+			if (key < split) {
+				hi = mid;
+			} else {
+				lo = mid + 1;
+			}
+			vertical = !vertical;
+		}
+		return false;
+	}
+	/**
+	 * All points in the set that are inside the rectangle.
+	 * @param rect
+	 * @return iterator of all points
+	 */
+	public Iterable<Point2D> range(RectHV rect) {
+		final Queue<Point2D> result = new Queue<Point2D>();
+		range(rect, new PointVisitor() {
+			public void visit(double x, double y) {
+				result.enqueue(new Point2D(x, y));
+			}
+		});
+		return result;
+	}
+	/**
+	 * Visit the points in the set that are inside the rectangle, without
+	 * collecting them.
+	 * @param rect
+	 * @param visitor
+	 */
+	public void range(RectHV rect, PointVisitor visitor) {
+		range(0, xs.length, true, rect, visitor);
+	}
+	/**
+	 *
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 * @param rect
+	 * @param visitor
+	 */
+	private void range(int lo, int hi, boolean vertical, RectHV rect, PointVisitor visitor) {
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		double x = xs[mid];
+		double y = ys[mid];
+		if (x >= rect.xmin() && x <= rect.xmax() && y >= rect.ymin() && y <= rect.ymax()) visitor.visit(x, y);
+		double split = vertical ? x : y;
+		// the left half holds coordinates up to the split, the right one from it
+		if ((vertical ? rect.xmin() : rect.ymin()) <= split) range(lo, mid, !vertical, rect, visitor);
+		if ((vertical ? rect.xmax() : rect.ymax()) >= split) range(mid + 1, hi, !vertical, rect, visitor);
+	}
+	/**
+	 * Number of points in the set that are inside the rectangle.
+	 * @param rect
+	 * @return count
+	 */
+	public int rangeCount(RectHV rect) {
+		return rangeCount(0, xs.length, true, rect);
+	}
+	/**
+	 *
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 * @param rect
+	 * @return count of the subtree
+	 */
+	private int rangeCount(int lo, int hi, boolean vertical, RectHV rect) {
+		if (lo >= hi) return 0;
+		int mid = (lo + hi) >>> 1;
+		double x = xs[mid];
+		double y = ys[mid];
+		int count = (x >= rect.xmin() && x <= rect.xmax() && y >= rect.ymin() && y <= rect.ymax()) ? 1 : 0;
+		double split = vertical ? x : y;
+		if ((vertical ? rect.xmin() : rect.ymin()) <= split) count += rangeCount(lo, mid, !vertical, rect);
+		if ((vertical ? rect.xmax() : rect.ymax()) >= split) count += rangeCount(mid + 1, hi, !vertical, rect);
+		return count;
+	}
+	/**
+	 * A nearest neighbor in the set to p; null if set is empty.
+	 * @param p Point2D object
+	 * @return nearest neighbor in the set to p; null if set is empty
+	 */
+	public Point2D nearest(Point2D p) {
+		if (isEmpty()) return null;
+		int best = nearest(0, xs.length, true, p.x(), p.y(), (xs.length - 1) >>> 1);
+		return new Point2D(xs[best], ys[best]);
+	}
+	/**
+	 * Search the near half first, and the far half only if the splitting
+	 * line is closer than the best point so far.
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 * @param x
+	 * @param y
+	 * @param best index of the nearest point so far
+	 * @return index of the nearest point
+	 */
+	private int nearest(int lo, int hi, boolean vertical, double x, double y, int best) {
+		if (lo >= hi) return best;
+		int mid = (lo + hi) >>> 1;
+		if (distanceSquared(mid, x, y) < distanceSquared(best, x, y)) best = mid;
+		double delta = vertical ? x - xs[mid] : y - ys[mid];
+		if (delta < 0) {
+			best = nearest(lo, mid, !vertical, x, y, best);
+			if (delta * delta < distanceSquared(best, x, y)) best = nearest(mid + 1, hi, !vertical, x, y, best);
+		} else {
+			best = nearest(mid + 1, hi, !vertical, x, y, best);
+			if (delta * delta < distanceSquared(best, x, y)) best = nearest(lo, mid, !vertical, x, y, best);
+		}
+		return best;
+	}
+	/**
+	 * draw all of the points and splitting lines to standard draw.
+	 */
+	public void draw() {
+		draw(0, xs.length, true, 0.0, 0.0, 1.0, 1.0);
+	}
+	/**
+	 *
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 * @param xmin bounds of the subtree
+	 * @param ymin
+	 * @param xmax
+	 * @param ymax
+	 */
+	private void draw(int lo, int hi, boolean vertical, double xmin, double ymin, double xmax, double ymax) {
+		if (lo >= hi) return;
+		int mid = (lo + hi) >>> 1;
+		StdDraw.setPenColor(StdDraw.BLACK);
+		StdDraw.setPenRadius(.01);
+		StdDraw.point(xs[mid], ys[mid]);
+		StdDraw.setPenRadius();
+		if (vertical) {
+			StdDraw.setPenColor(StdDraw.RED);
+			StdDraw.line(xs[mid], ymin, xs[mid], ymax);
+			draw(lo, mid, false, xmin, ymin, xs[mid], ymax);
+			draw(mid + 1, hi, false, xs[mid], ymin, xmax, ymax);
+		} else {
+			StdDraw.setPenColor(StdDraw.BLUE);
+			StdDraw.line(xmin, ys[mid], xmax, ys[mid]);
+			draw(lo, mid, true, xmin, ymin, xmax, ys[mid]);
+			draw(mid + 1, hi, true, xmin, ys[mid], xmax, ymax);
+		}
+	}
+	/**
+	 * Median partitioning: the median of each range by the splitting
+	 * coordinate goes to the middle, smaller ones before it, larger ones
+	 * after it.
+	 * @param lo first index of the subtree
+	 * @param hi index after the subtree
+	 * @param vertical is the subtree split by x?
+	 */
+	private void build(int lo, int hi, boolean vertical) {
+		if (hi - lo <= 1) return;
+		int mid = (lo + hi) >>> 1;
+		select(lo, hi, mid, vertical ? xs : ys);
+		build(lo, mid, !vertical);
+		build(mid + 1, hi, !vertical);
+	}
+	/**
+	 * Quickselect with 3-way partitioning, so that runs of equal
+	 * coordinates do not degrade it.
+	 * @param lo first index
+	 * @param hi index after the last
+	 * @param k index to put in place
+	 * @param keys coordinates compared
+	 */
+	private void select(int lo, int hi, int k, double[] keys) {
+		while (hi - lo > 1) {
+			double pivot = keys[(lo + hi) >>> 1];
+			int lt = lo, i = lo, gt = hi - 1;
+			while (i <= gt) {
+				if (keys[i] < pivot) swap(lt++, i++);
+				else if (keys[i] > pivot) swap(i, gt--);
+				else i++;
+			}
+			// [lo, lt) < pivot, [lt, gt] == pivot, (gt, hi) > pivot
+			if (k < lt) hi = lt;
+			else if (k > gt) lo = gt + 1;
+			else return;
+		}
+	}
+	/**
+	 *
+	 * @param i
+	 * @param j
+	 */
+	private void swap(int i, int j) {
+		double x = xs[i];
+		xs[i] = xs[j];
+		xs[j] = x;
+		double y = ys[i];
+		ys[i] = ys[j];
+		ys[j] = y;
+	}
+	/**
+	 *
+	 * @param i index of a point
+	 * @param x
+	 * @param y
+	 * @return square of the distance between the point and (x, y)
+	 */
+	private double distanceSquared(int i, double x, double y) {
+		double dx = xs[i] - x;
+		double dy = ys[i] - y;
+		return dx * dx + dy * dy;
+	}
+	/**
+	 * Compare bulk loading with insertion into KdTree (java StaticKdTree
+	 * input.txt).
+	 * @param args
+	 */
+	public static void main(String[] args) {
+		Stopwatch stopwatch = new Stopwatch();
+		StaticKdTree tree = read(args[0]);
+		StdOut.println("StaticKdTree: " + tree.size() + " points in " + stopwatch.elapsedTime() + " seconds");
+		stopwatch = new Stopwatch();
+		KdTree kdtree = new KdTree();
+		In in = new In(args[0]);
+		while (!in.isEmpty()) kdtree.insert(new Point2D(in.readDouble(), in.readDouble()));
+		StdOut.println("KdTree: " + kdtree.size() + " points in " + stopwatch.elapsedTime() + " seconds");
+		for (int i = 0; i < 1000; i++) {
+			Point2D query = new Point2D(StdRandom.uniform(), StdRandom.uniform());
+			if (tree.nearest(query).distanceSquaredTo(query) != kdtree.nearest(query).distanceSquaredTo(query)) {
+				throw new IllegalStateException("Nearest points differ for " + query);
+			}
+		}
+	}
+}